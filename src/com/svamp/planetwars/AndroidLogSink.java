@@ -0,0 +1,18 @@
+package com.svamp.planetwars;
+
+import android.util.Log;
+
+/**
+ * Forwards messages from the shared logging facade to logcat.
+ */
+class AndroidLogSink implements com.svamp.planetwars.util.Log.Sink {
+    @Override
+    public void d(String tag, String msg) {
+        Log.d(tag, msg);
+    }
+
+    @Override
+    public void e(String tag, String msg, Throwable tr) {
+        Log.e(tag, msg, tr);
+    }
+}
@@ -2,37 +2,65 @@ package com.svamp.planetwars;
 
 import com.svamp.planetwars.network.ByteSerializeable;
 import com.svamp.planetwars.network.Player;
-import com.svamp.planetwars.sprite.StarSprite;
+import com.svamp.planetwars.network.PlayerRegistry;
 
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Instantiated by a star to keep track of all the units attacking each other.
+ * Ship numbers are kept in a FleetTable row belonging to the star; the Fleets held here are views of it.
+ * Fleets are held by player slot (player number). A slot's view is made once and reused, also when decoding
+ * updates, so neither battles nor updates allocate or hash players.
  */
 public class BattleField implements ByteSerializeable {
     //Only calculate battles every tick.(seconds)
-    private final static float TICK_LENGTH = 1f;
+    public final static float TICK_LENGTH = 1f;
 
-    private final StarSprite star;
+    private final Star star;
+    private final FleetTable table;
+    //Index of star in table.
+    private final int index;
     private Fleet homeFleet;
-    private final Map<Player,Fleet> actors = new HashMap<Player,Fleet>();
+    //Views of the table, by player slot. Null until a slot is first used.
+    private final Fleet[] slots = new Fleet[FleetTable.MAX_PLAYERS];
+    //Slots of the players attacking the home fleet.
+    private final boolean[] attacking = new boolean[FleetTable.MAX_PLAYERS];
+    private int numActors = 0;
     private float time = 0;
+    //Damage matrix used by update. Kept to not allocate every battle tick.
+    private final int[] damage = new int[FleetTable.STAR_STRIDE];
 
     //Number of ticks required before a ship is constructed and added to the home fleet.
     // Also dependent on star size.
     private final static float ADD_SHIP_MULTIPLIER = .8f;
     //Maximum amount of ships to have before construction halts.
-    private final static int MAX_UNITS_FOR_BUILD = 0;
+    final static int MAX_UNITS_FOR_BUILD = 0;
     private int tickNum=0;
 
+    //Told when fleets are added from outside.
+    private Listener listener;
 
 
-    public BattleField(StarSprite star) {
-        short five = 5;
-        this.homeFleet = new Fleet(Player.getNeutral(),five,five,five);
+    /**
+     * Battlefield storing its fleets in a table of its own.
+     * @param star Star fought over.
+     */
+    public BattleField(Star star) {
+        this(star,new FleetTable(1),0);
+    }
+
+    /**
+     * @param star Star fought over.
+     * @param table Table holding the ship numbers.
+     * @param index Index of the star in table.
+     */
+    public BattleField(Star star, FleetTable table, int index) {
         this.star = star;
+        this.table = table;
+        this.index = index;
+        int five = 5*Fleet.SHIP_POINTS;
+        this.homeFleet = slotFleet(Player.getNeutral());
+        this.homeFleet.setPoints(five,five,five);
     }
 
 
@@ -45,43 +73,134 @@ public class BattleField implements ByteSerializeable {
         time+=dt;
         if(time<TICK_LENGTH) { return 0; } //Not yet time for a tick
         time-= TICK_LENGTH;
+        return tick(dt);
+    }
+
+    /**
+     * Run one battle tick: build ships and fight.
+     * @param dt Amount of time passed in the update reaching this tick. Damage done is proportional to it.
+     * @return @see update(float dt)
+     */
+    public int tick(float dt) {
         tickNum++;
-        if(tickNum % (int)(ADD_SHIP_MULTIPLIER/star.getBounds().width())==0
+        if(tickNum % buildTicks(star.getSize())==0
                 && homeFleet.getOwner()!=Player.getNeutral()) { //Time to make a ship. Only non-neutral players make ships.
             tickNum=0;
             if(homeFleet.sum() < MAX_UNITS_FOR_BUILD) {
                 homeFleet.add(star.getBuildType(),1);
 
                 //No battle? Submit changes anyway. We've got more ships after all.
-                if(actors.size()==0) return 1;
+                if(numActors==0) return 1;
             }
         }
         //If we have actors, we have a battle!
-        if(actors.size()==0) { return 0; }
+        if(numActors==0) { return 0; }
         // A rotten battle for the home fleet: All attackers attack the home fleet!
-        for(Fleet actor : actors.values()) {
-            homeFleet.absorbDamageBy(dt, actor);
-        }
-        // The home fleet always attacks the first actor. Sucks to be him
-        Player firstPlayer = actors.keySet().iterator().next();
-        Fleet firstFleet = actors.get(firstPlayer);
-        firstFleet.absorbDamageBy(dt,homeFleet);
-        // If the first fleet is obliterated by this attack, delete him from the list of actors.
-        if(firstFleet.isEmpty()) {
-            actors.remove(firstPlayer);
-        }
+        // The home fleet always attacks the first actor (lowest player number). Sucks to be him
+        Fleet firstFleet = slots[getFirstActor()];
+        Player firstPlayer = firstFleet.getOwner();
+        table.resolveBattle(index,homeFleet.getOwner(),firstPlayer,dt,damage);
         // If homeFleet is annihilated, the first enemy gets control over the star!
         if(homeFleet.isEmpty()) {
-            actors.remove(firstPlayer);
-            setHomeFleet(firstFleet);
+            replaceHomeFleet(firstFleet);
             return 2;
         }
+        // If the first fleet is obliterated by this attack, delete him from the list of actors.
+        if(firstFleet.isEmpty()) {
+            removeActor(firstPlayer);
+        }
         return 1;
     }
 
     public Fleet getHomeFleet() { return homeFleet; }
-    public void setHomeFleet(Fleet fleet) { homeFleet=fleet; }
-    public int numActors() { return actors.size(); }
+
+    //Slot of the attacker the home fleet fires at, and who takes the star if the home fleet dies.
+    private int getFirstActor() {
+        int slot=0;
+        while(!attacking[slot]) slot++;
+        return slot;
+    }
+
+    /**
+     * Fleet of a player slot, for visiting every fleet without allocating:
+     * loop slot from 0 to FleetTable.MAX_PLAYERS-1 and skip the nulls.
+     * @param slot Player slot (player number).
+     * @return The home fleet or attacking fleet of the slot, or null if the slot has no fleet here.
+     */
+    public Fleet getFleetInSlot(int slot) {
+        return slot==homeFleet.getOwner().getPlayerNum() || attacking[slot] ? slots[slot] : null;
+    }
+
+    /**
+     * Predicts the next battle tick where something may happen, if no fleets are added before it.
+     * Ticks before it only advance the build counter, and may be replaced by skipTicks.
+     * @return Number of ticks until the next tick that must be run, or -1 if none will ever be.
+     */
+    public int ticksToNextEvent() {
+        //Ships die every tick of a battle.
+        if(numActors>0) return 1;
+        //Neutral stars never build.
+        if(homeFleet.getOwner()==Player.getNeutral()) return -1;
+        int buildTicks = buildTicks(star.getSize());
+        return buildTicks - tickNum%buildTicks;
+    }
+
+    /**
+     * @param starSize Diameter of star.
+     * @return Number of battle ticks between ships built at a star of the given size.
+     */
+    static int buildTicks(float starSize) {
+        return (int)(ADD_SHIP_MULTIPLIER/starSize);
+    }
+
+    //Battle ticks counted towards the next ship built.
+    int getTickNum() { return tickNum; }
+
+    /**
+     * Copy the ship numbers of every player slot at this star.
+     * @param dest Array to copy to. Receives FleetTable.STAR_STRIDE ints, fixed point.
+     * @param o Offset in dest.
+     */
+    void copyFleets(int[] dest, int o) {
+        table.copyStar(index,dest,o);
+    }
+
+    /**
+     * Account for battle ticks that were not run because nothing would happen in them.
+     * @param ticks Number of ticks skipped.
+     */
+    public void skipTicks(int ticks) {
+        tickNum+=ticks;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener=listener;
+    }
+
+    /**
+     * Replace the home fleet, and with it the owner of the star.
+     * The old home fleet is removed. If the new owner was attacking, its attacking fleet is replaced too.
+     * @param fleet Fleet to take over. Its ships are copied into this battlefield.
+     */
+    public void setHomeFleet(Fleet fleet) {
+        replaceHomeFleet(fleet);
+        fireFleetsAdded();
+    }
+
+    private void replaceHomeFleet(Fleet fleet) {
+        //Copy first. The fleet may be a view of one of the rows cleared below.
+        int red = fleet.getPoints(Fleet.ShipType.RED_SHIP);
+        int blue = fleet.getPoints(Fleet.ShipType.BLUE_SHIP);
+        int green = fleet.getPoints(Fleet.ShipType.GREEN_SHIP);
+        Player owner = fleet.getOwner();
+
+        table.clear(index,homeFleet.getOwner());
+        removeActor(owner);
+        homeFleet = slotFleet(owner);
+        homeFleet.setPoints(red,blue,green);
+    }
+
+    public int numActors() { return numActors; }
 
     /**
      * Gets a fleet in this battlefield with the specified owner.
@@ -90,14 +209,53 @@ public class BattleField implements ByteSerializeable {
      */
     public Fleet getFleetWithOwner(Player player) {
         if(homeFleet.getOwner().equals(player)) return homeFleet;
-        else return actors.get(player);
+        int slot = player.getPlayerNum();
+        return attacking[slot] && slots[slot].getOwner().equals(player) ? slots[slot] : null;
     }
 
     public void addFleet(Fleet f) {
         Fleet existing = getFleetWithOwner(f.getOwner());
-        if(existing!=null) existing.add(f);
-        else {
-            actors.put(f.getOwner(),f);
+        if(existing==null) {
+            existing = slotFleet(f.getOwner());
+            addActor(existing);
+        }
+        existing.add(f);
+        fireFleetsAdded();
+    }
+
+    /**
+     * @return View of the player's slot. Made on first use of the slot, or when another player takes the slot.
+     */
+    private Fleet slotFleet(Player player) {
+        int slot = player.getPlayerNum();
+        Fleet fleet = slots[slot];
+        if(fleet==null || !fleet.getOwner().equals(player)) {
+            fleet = table.getFleet(index,player);
+            slots[slot] = fleet;
+        }
+        return fleet;
+    }
+
+    private void addActor(Fleet fleet) {
+        int slot = fleet.getOwner().getPlayerNum();
+        if(!attacking[slot]) {
+            attacking[slot]=true;
+            numActors++;
+        }
+    }
+
+    //Never called from update(), so stars may be updated in parallel.
+    private void fireFleetsAdded() {
+        if(listener!=null)
+            listener.fleetsAdded(star);
+    }
+
+    private void removeActor(Player player) {
+        int slot = player.getPlayerNum();
+        if(attacking[slot]) {
+            attacking[slot]=false;
+            numActors--;
+            table.clear(index,player);
         }
     }
 
@@ -106,36 +264,68 @@ public class BattleField implements ByteSerializeable {
         /*
          * Format:
          * fleetCount: byte
-         * homefleet: 12*byte
-         * [actors]: size*12*byte
+         * homefleet: fleet, variable size
+         * [actors]: size*fleet
          */
         ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize());
         //Insert actor size and home fleet.
-        buffer.put((byte) actors.size())
+        buffer.put((byte) numActors)
                 .put(homeFleet.getSerialization());
-        for(Fleet actor : actors.values())
-            buffer.put(actor.getSerialization());
+        for(int slot=0;slot<FleetTable.MAX_PLAYERS;slot++)
+            if(attacking[slot]) buffer.put(slots[slot].getSerialization());
         return buffer.array();
     }
 
     @Override
     public void updateFromSerialization(ByteBuffer buffer) {
+        updateFromSerialization(buffer,PlayerRegistry.getDefault());
+    }
+
+    /**
+     * Same as updateFromSerialization(ByteBuffer), resolving fleet owners in the given registry.
+     * @param buffer Buffer to read from.
+     * @param players Players the fleet owners are looked up in.
+     */
+    public void updateFromSerialization(ByteBuffer buffer, PlayerRegistry players) {
         byte size = buffer.get(); //number of fleets.
+        //Fleets not in the update are gone. The slot views are kept and filled in again.
+        table.clear(index);
+        for(int slot=0;slot<FleetTable.MAX_PLAYERS;slot++)
+            attacking[slot]=false;
+        numActors=0;
         //Update home fleet.
-        homeFleet.updateFromSerialization(buffer);
-        //TODO: Better way than rebuilding the entire battlefield on update?
-        actors.clear();
-
-        for(int i=0;i<size;i++) {
-            Player player = GameEngine.getPlayer(buffer.getInt());
-            //Rewind buffer 4 bytes. We're just peeking!
-            buffer.position(buffer.position()-4);
-            actors.put(player,new Fleet(buffer));
-        }
+        homeFleet = readFleet(buffer,players);
+
+        for(int i=0;i<size;i++)
+            addActor(readFleet(buffer,players));
+    }
+
+    /**
+     * Read one serialized fleet into the table.
+     * @return View of the fleet read.
+     */
+    private Fleet readFleet(ByteBuffer buffer, PlayerRegistry players) {
+        Player player = players.get(buffer.get());
+        //Rewind buffer 1 byte. We're just peeking!
+        buffer.position(buffer.position()-1);
+        Fleet fleet = slotFleet(player);
+        fleet.updateFromSerialization(buffer,players);
+        return fleet;
     }
 
     @Override
     public int getSerializedSize() {
-        return 1+homeFleet.getSerializedSize()*(actors.size()+1);
+        //Fleets differ in size, depending on their ship numbers.
+        int size = 1+homeFleet.getSerializedSize();
+        for(int slot=0;slot<FleetTable.MAX_PLAYERS;slot++)
+            if(attacking[slot]) size+=slots[slot].getSerializedSize();
+        return size;
+    }
+
+    /**
+     * Listener for fleets entering a battlefield, which may make the next event come sooner.
+     */
+    public interface Listener {
+        void fleetsAdded(Star star);
     }
 }
@@ -0,0 +1,80 @@
+package com.svamp.planetwars;
+
+import com.svamp.planetwars.network.Player;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Predicted outcome of sending a fleet to a star: who holds the star when the battle is over, with what, and when.
+ * Played out on a GameState by the rules of the host, so the prediction is exact for a star nobody else sends to.
+ */
+public final class BattlePreview {
+    //Battles not over by then are reported as lost. Seconds.
+    private final static float MAX_BATTLE_TIME = 600;
+
+    private final boolean captured;
+    private final float seconds;
+    private final int red, green, blue;
+
+    private BattlePreview(boolean captured, float seconds, int red, int green, int blue) {
+        this.captured=captured;
+        this.seconds=seconds;
+        this.red=red;
+        this.green=green;
+        this.blue=blue;
+    }
+
+    /**
+     * Play out the battle of a fleet landing at a star.
+     * @param state State of the star. Changed by the battle; pass a fork to keep it.
+     * @param star Index of star attacked.
+     * @param fleet Fleet landing.
+     * @param flightTime Time the fleet flies before landing. Seconds. Only added to the time reported.
+     * @param updateDt Length of a host update. Seconds. Damage done per battle tick is proportional to it.
+     * @return Outcome of the battle.
+     */
+    public static BattlePreview simulate(GameState state, int star, Fleet fleet, float flightTime, float updateDt) {
+        int slot = fleet.getOwner().getPlayerNum();
+        state.addFlight(star,fleet,state.getTime());
+        double start = state.getTime();
+        do {
+            state.advance(updateDt);
+        } while(state.getOwner(star)!=slot && state.getShipCount(star,slot)>0
+                && state.getTime()-start<MAX_BATTLE_TIME);
+        boolean captured = state.getOwner(star)==slot;
+        float seconds = flightTime+(float) (state.getTime()-start);
+        //Survivors of the winner: our fleet, or the home fleet left standing.
+        int winner = state.getOwner(star);
+        return new BattlePreview(captured,seconds,
+                state.getShips(star,winner,Fleet.ShipType.RED_SHIP),
+                state.getShips(star,winner,Fleet.ShipType.GREEN_SHIP),
+                state.getShips(star,winner,Fleet.ShipType.BLUE_SHIP));
+    }
+
+    /**
+     * Copy the state of a star, to simulate() a battle at it on another thread. It is star 0 of the state.
+     * @param star Star to copy.
+     * @param players Players that may own fleets at the star.
+     * @return State holding only the star.
+     */
+    public static GameState capture(Star star, Collection<Player> players) {
+        //The position of the star only matters for fleets sent from it.
+        return new GameState(Collections.singletonList(star),new float[2],players,0,0);
+    }
+
+    /** @return True if the fleet takes the star. */
+    public boolean isCaptured() { return captured; }
+
+    /** @return Time from sending until the star is taken, or until the fleet is beaten. Seconds. */
+    public float getSeconds() { return seconds; }
+
+    /** @return Number of ships of a type left in the fleet holding the star after the battle. */
+    public int getSurvivors(Fleet.ShipType type) {
+        return type==Fleet.ShipType.RED_SHIP ? red : type==Fleet.ShipType.GREEN_SHIP ? green : blue;
+    }
+
+    public String toString() {
+        return (captured ? "Captured in " : "Repelled after ")+Math.round(seconds)+"s, "+red+"/"+green+"/"+blue+" left";
+    }
+}
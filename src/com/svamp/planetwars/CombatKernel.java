@@ -0,0 +1,102 @@
+package com.svamp.planetwars;
+
+/**
+ * Resolves a battle tick at a star in one pass over its stretch of a FleetTable.
+ * Every fleet fires at the same time, using its ship numbers from before the tick: first the damage each
+ * player slot takes is summed into a damage matrix (slot x ship type), then the matrix is applied to every slot.
+ * Slots are visited in slot order, so neither cost nor result depend on how the battlefield stores its fleets.
+ * All arithmetic is on fixed point ints (see Fleet), so results are bit exact on every device.
+ * Allocates nothing.
+ */
+final class CombatKernel {
+    private CombatKernel() {}
+
+    /**
+     * Resolve one battle tick. All attackers fire at the home fleet, the home fleet fires at the target.
+     * @param ships Array of a FleetTable.
+     * @param star Offset of the star's stretch in ships.
+     * @param homeSlot Player slot of the home fleet.
+     * @param targetSlot Player slot of the attacker the home fleet fires at.
+     * @param dtMs Time interval fought (milliseconds)
+     * @param damage Damage matrix to fill, FleetTable.MAX_PLAYERS*FleetTable.NUM_TYPES ints. Any contents are overwritten.
+     */
+    static void resolve(int[] ships, int star, int homeSlot, int targetSlot, int dtMs, int[] damage) {
+        int home = homeSlot*FleetTable.NUM_TYPES;
+        int target = targetSlot*FleetTable.NUM_TYPES;
+        //Build damage matrix. Rows of empty slots are 0 and add nothing.
+        for(int i=0;i<damage.length;i++)
+            damage[i]=0;
+        for(int slot=0;slot<FleetTable.MAX_PLAYERS;slot++) {
+            if(slot==homeSlot) continue;
+            int o = slot*FleetTable.NUM_TYPES;
+            for(int t=0;t<FleetTable.NUM_TYPES;t++)
+                damage[home+t] += damageOutput(ships[star+o+t],dtMs);
+        }
+        for(int t=0;t<FleetTable.NUM_TYPES;t++)
+            damage[target+t] = damageOutput(ships[star+home+t],dtMs);
+        //Apply it.
+        for(int slot=0;slot<FleetTable.MAX_PLAYERS;slot++) {
+            int o = slot*FleetTable.NUM_TYPES;
+            applyDamage(ships,star+o,damage[o+Fleet.RED],damage[o+Fleet.GREEN],damage[o+Fleet.BLUE]);
+        }
+    }
+
+    /**
+     * @param dt Time interval (seconds)
+     * @return The interval in whole milliseconds, the time unit of the kernel.
+     */
+    static int toMillis(float dt) {
+        return Math.round(dt*1000);
+    }
+
+    /**
+     * @param ships Number of ships of one type, fixed point. Only whole ships fire.
+     * @param dtMs Time interval fought (milliseconds)
+     * @return Damage done by the ships, fixed point.
+     */
+    static int damageOutput(int ships, int dtMs) {
+        return (int) ((long) Fleet.wholeShips(ships)*Fleet.BASE_DAMAGE*dtMs/1000);
+    }
+
+    /**
+     * Damage a fleet. Each type of damage is first spent on the ship type it is strong against,
+     * then on its own type, and what is left on the type it is weak against.
+     * @param ships Array holding the fleet.
+     * @param o Offset of the fleet in ships.
+     * @param redDamage Damage done by red ships, fixed point.
+     * @param greenDamage Damage done by green ships, fixed point.
+     * @param blueDamage Damage done by blue ships, fixed point.
+     */
+    static void applyDamage(int[] ships, int o, int redDamage, int greenDamage, int blueDamage) {
+        if(redDamage==0 && greenDamage==0 && blueDamage==0) return;
+        //First, weakness exploitation.
+        redDamage = damage(ships, o+Fleet.GREEN, redDamage, Fleet.ADVANTAGE_MULTIPLIER);
+        greenDamage = damage(ships, o+Fleet.BLUE, greenDamage, Fleet.ADVANTAGE_MULTIPLIER);
+        blueDamage = damage(ships, o+Fleet.RED, blueDamage, Fleet.ADVANTAGE_MULTIPLIER);
+        // No weakness, damage multiplier 1.
+        redDamage = damage(ships, o+Fleet.RED, redDamage, Fleet.MULTIPLIER_SCALE);
+        greenDamage = damage(ships, o+Fleet.GREEN, greenDamage, Fleet.MULTIPLIER_SCALE);
+        blueDamage = damage(ships, o+Fleet.BLUE, blueDamage, Fleet.MULTIPLIER_SCALE);
+        // Attack stronger ships with the rest of the damage done.
+        damage(ships, o+Fleet.RED, greenDamage, Fleet.WEAKNESS_MULTIPLIER);
+        damage(ships, o+Fleet.GREEN, blueDamage, Fleet.WEAKNESS_MULTIPLIER);
+        damage(ships, o+Fleet.BLUE, redDamage, Fleet.WEAKNESS_MULTIPLIER);
+    }
+
+    /**
+     * Damage one ship type.
+     * @param ships Array holding the ships.
+     * @param i Index of the ship type to damage.
+     * @param dmg Amount of damage done.
+     * @param multiplier Damage multiplier to this ship type, in Fleet.MULTIPLIER_SCALE units.
+     * @return Damage left over because number of ships reached 0.
+     */
+    private static int damage(int[] ships, int i, int dmg, int multiplier) {
+        //Damage done is either the entire HP pool, or the total damage.
+        //Ship numbers are in hit points already, so no conversion is needed.
+        int damageDone = (int) Math.min(ships[i],(long) dmg*multiplier/Fleet.MULTIPLIER_SCALE);
+
+        ships[i] -= damageDone;
+        return dmg - damageDone;
+    }
+}
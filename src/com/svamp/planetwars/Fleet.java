@@ -1,40 +1,76 @@
 package com.svamp.planetwars;
 
-import android.util.FloatMath;
 import com.svamp.planetwars.network.ByteSerializeable;
 import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.network.PlayerRegistry;
+import com.svamp.planetwars.util.VarInt;
 
 import java.nio.ByteBuffer;
 
 /**
  * A fleet consists of several spaceships.
+ * Ship numbers live in an int array: either one of the fleet's own, or a stretch of a FleetTable.
+ * In the latter case this object is only a view, and all changes go straight to the table.
+ * Numbers are fixed point, counting hit points in thousandths, so combat gives the same result on every device.
  */
 public class Fleet implements ByteSerializeable {
-    private final static float SHIP_HP=5;
-    /** How much more damage red does against green, green against blue, and blue against red. */
-    private final static float ADVANTAGE_MULTIPLIER = 1.5f;
-    /** How much less damage red does against blue, blue against green, and green against red. */
-    private final static float WEAKNESS_MULTIPLIER = 0.6667f;
-    /**How much base damage a ship does/second */
-    private final static float BASE_DAMAGE = 2.5f;
+    final static int SHIP_HP=5;
+    /** Fixed point units per hit point. */
+    final static int HP_SCALE = 1000;
+    /** Fixed point units per ship: its hit points. */
+    final static int SHIP_POINTS = SHIP_HP*HP_SCALE;
+    /** Fixed point units of damage multipliers. */
+    final static int MULTIPLIER_SCALE = 10000;
+    /** How much more damage red does against green, green against blue, and blue against red. 1.5 */
+    final static int ADVANTAGE_MULTIPLIER = 15000;
+    /** How much less damage red does against blue, blue against green, and green against red. 0.6667 */
+    final static int WEAKNESS_MULTIPLIER = 6667;
+    /**How much base damage a ship does/second, in thousandths of hit points. 2.5 */
+    final static int BASE_DAMAGE = 2500;
+    /** How far a flying fleet travels/second */
+    public final static float MAX_SPEED = .3f;
+
+    //Positions of the ship types within a fleet's stretch of the array.
+    final static int RED = 0;
+    final static int GREEN = 1;
+    final static int BLUE = 2;
 
     private Player owner;
 
-    /** Number of ships are floats to allow for ships to be partially destroyed.
+    /** Number of ships are fixed point (SHIP_POINTS per ship) to allow for ships to be partially destroyed.
      * All getters will round up this number to show number of actual ships.  */
-    private final Ships redCrafts = new Ships(0);
-    private final Ships blueCrafts = new Ships(0);
-    private final Ships greenCrafts = new Ships(0);
+    private final int[] ships;
+    private final int offset;
+    //Views have their owner fixed by the table slot they point into.
+    private final boolean isView;
 
-    public Fleet(Player owner, float redCrafts, float blueCrafts, float greenCrafts) {
+    public Fleet(Player owner, int redCrafts, int blueCrafts, int greenCrafts) {
         this.owner=owner;
-        this.redCrafts.add(redCrafts);
-        this.blueCrafts.add(blueCrafts);
-        this.greenCrafts.add(greenCrafts);
+        this.ships=new int[FleetTable.NUM_TYPES];
+        this.offset=0;
+        this.isView=false;
+        setPoints(redCrafts*SHIP_POINTS,blueCrafts*SHIP_POINTS,greenCrafts*SHIP_POINTS);
     }
 
     public Fleet(ByteBuffer buffer) {
-        updateFromSerialization(buffer);
+        this(buffer,PlayerRegistry.getDefault());
+    }
+
+    public Fleet(ByteBuffer buffer, PlayerRegistry players) {
+        this.ships=new int[FleetTable.NUM_TYPES];
+        this.offset=0;
+        this.isView=false;
+        updateFromSerialization(buffer,players);
+    }
+
+    /**
+     * View of a fleet stored in a FleetTable.
+     */
+    Fleet(Player owner, int[] ships, int offset) {
+        this.owner=owner;
+        this.ships=ships;
+        this.offset=offset;
+        this.isView=true;
     }
 
 
@@ -43,9 +79,9 @@ public class Fleet implements ByteSerializeable {
      * @param f Fleet to add to this object.
      */
     public void add(Fleet f) {
-        this.redCrafts.add(f.redCrafts);
-        this.blueCrafts.add(f.blueCrafts);
-        this.greenCrafts.add(f.greenCrafts);
+        ships[offset+RED] += f.ships[f.offset+RED];
+        ships[offset+GREEN] += f.ships[f.offset+GREEN];
+        ships[offset+BLUE] += f.ships[f.offset+BLUE];
     }
 
     /**
@@ -54,20 +90,32 @@ public class Fleet implements ByteSerializeable {
      * @param q Quantity of ship
      */
     public void add(ShipType t, int q) {
-        if(t == ShipType.BLUE_SHIP) blueCrafts.add(q);
-        if(t == ShipType.RED_SHIP) redCrafts.add(q);
-        if(t == ShipType.GREEN_SHIP) greenCrafts.add(q);
+        ships[offset+t.ordinal()] += q*SHIP_POINTS;
     }
     /**
      * Subtracts the unit number in the provided fleet from this one.
      * @param fleet Fleet to remove from this one.
      */
     public void subtract(Fleet fleet) {
-        this.redCrafts.subtract(fleet.redCrafts);
-        this.blueCrafts.subtract(fleet.blueCrafts);
-        this.greenCrafts.subtract(fleet.greenCrafts);
+        for(int i=0;i<FleetTable.NUM_TYPES;i++)
+            ships[offset+i] = Math.max(0,ships[offset+i]-fleet.ships[fleet.offset+i]);
+    }
+
+    /**
+     * Replace the ship numbers of this fleet, in fixed point units.
+     */
+    void setPoints(int red, int blue, int green) {
+        ships[offset+RED] = red;
+        ships[offset+GREEN] = green;
+        ships[offset+BLUE] = blue;
     }
 
+    /**
+     * @param t Type of ship.
+     * @return Number of ships of the type in fixed point units, including partially destroyed ones.
+     */
+    int getPoints(ShipType t) { return ships[offset+t.ordinal()]; }
+
     /**
      * Enemy fleet damages this fleet! This method calculates the damage done by the
      * enemy fleet to this one, and removes destroyed ships accordingly.
@@ -75,28 +123,37 @@ public class Fleet implements ByteSerializeable {
      * @param enemy enemy fleet doing the damaging.
      */
     public void absorbDamageBy(float dt, Fleet enemy) {
-        // Enemy damage output
-        float redDamage = enemy.getRedCrafts()*BASE_DAMAGE*dt;
-        float greenDamage = enemy.getGreenCrafts()*BASE_DAMAGE*dt;
-        float blueDamage = enemy.getBlueCrafts()*BASE_DAMAGE*dt;
-        /*Compute how much damage is done to each ship type*/
-        //First, weakness exploitation.
-        redDamage = greenCrafts.damage(redDamage, ADVANTAGE_MULTIPLIER);
-        greenDamage = blueCrafts.damage(greenDamage, ADVANTAGE_MULTIPLIER);
-        blueDamage = redCrafts.damage(blueDamage, ADVANTAGE_MULTIPLIER);
-        // No weakness, damage multiplier 1.
-        redDamage = redCrafts.damage(redDamage, 1);
-        greenDamage = greenCrafts.damage(greenDamage, 1);
-        blueDamage = blueCrafts.damage(blueDamage, 1);
-        // Attack stronger ships with the rest of the damage done.
-        redCrafts.damage(greenDamage, WEAKNESS_MULTIPLIER);
-        greenCrafts.damage(blueDamage, WEAKNESS_MULTIPLIER);
-        blueCrafts.damage(redDamage, WEAKNESS_MULTIPLIER);
-    }
-
-    public short getRedCrafts() { return redCrafts.getNum(); }
-    public short getBlueCrafts() { return blueCrafts.getNum(); }
-    public short getGreenCrafts() { return greenCrafts.getNum(); }
+        absorbDamage(ships,offset,enemy.ships,enemy.offset,CombatKernel.toMillis(dt));
+    }
+
+    /**
+     * Combat rules, on raw ship numbers. Allocates nothing.
+     * @param ships Array holding the fleet taking damage.
+     * @param o Offset of that fleet in ships.
+     * @param enemy Array holding the fleet doing the damage.
+     * @param e Offset of that fleet in enemy.
+     * @param dtMs Time interval the enemy has attacked (milliseconds)
+     */
+    static void absorbDamage(int[] ships, int o, int[] enemy, int e, int dtMs) {
+        CombatKernel.applyDamage(ships,o,
+                CombatKernel.damageOutput(enemy[e+RED],dtMs),
+                CombatKernel.damageOutput(enemy[e+GREEN],dtMs),
+                CombatKernel.damageOutput(enemy[e+BLUE],dtMs));
+    }
+
+    public short getRedCrafts() { return getNum(RED); }
+    public short getBlueCrafts() { return getNum(BLUE); }
+    public short getGreenCrafts() { return getNum(GREEN); }
+
+    private short getNum(int type) { return (short) wholeShips(ships[offset+type]); }
+
+    /**
+     * @param points Number of ships in fixed point units.
+     * @return Number of ships, a partially destroyed one counting as a whole.
+     */
+    static int wholeShips(int points) {
+        return points<=0 ? 0 : (points+SHIP_POINTS-1)/SHIP_POINTS;
+    }
 
     public Player getOwner() { return owner; }
     public boolean isEmpty() { return sum() == 0; }
@@ -104,14 +161,14 @@ public class Fleet implements ByteSerializeable {
     /**
      * Check whether this fleet is a subset of the provided fleet
      * (it has less or equal quantities of all types of ships.)
-     * The method works with whole = new Ship ships, and do not care about damage done to the fleet.
+     * The method works with whole ships, and do not care about damage done to the fleet.
      * @param f Superset fleet to check
      * @return True if this fleet has less of every ship than the provided one.
      */
     public boolean isSubsetOf(Fleet f) {
-        return redCrafts.getNum() <= f.redCrafts.getNum() &&
-                greenCrafts.getNum() <= f.greenCrafts.getNum() &&
-                blueCrafts.getNum() <= f.blueCrafts.getNum();
+        return getRedCrafts() <= f.getRedCrafts() &&
+                getGreenCrafts() <= f.getGreenCrafts() &&
+                getBlueCrafts() <= f.getBlueCrafts();
 
     }
 
@@ -119,30 +176,43 @@ public class Fleet implements ByteSerializeable {
     public byte[] getSerialization() {
         /*
          * Format:
-         * playerId:int
-         * redcraftnum: float
-         * bluecraftnum: float
-         * greencraftnum: float
+         * playerNum: byte
+         * redcraftnum: varint, fixed point
+         * bluecraftnum: varint, fixed point
+         * greencraftnum: varint, fixed point
          */
         ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize());
-        buffer.putInt(owner.getElementHash())
-                .putFloat(redCrafts.shipNum)
-                .putFloat(blueCrafts.shipNum)
-                .putFloat(greenCrafts.shipNum);
+        buffer.put(owner.getPlayerNum());
+        VarInt.put(buffer,ships[offset+RED]);
+        VarInt.put(buffer,ships[offset+BLUE]);
+        VarInt.put(buffer,ships[offset+GREEN]);
         return buffer.array();
     }
 
     @Override
     public void updateFromSerialization(ByteBuffer buffer) {
-        owner = GameEngine.getPlayer(buffer.getInt());
-        redCrafts.set(buffer.getFloat());
-        blueCrafts.set(buffer.getFloat());
-        greenCrafts.set(buffer.getFloat());
+        updateFromSerialization(buffer,PlayerRegistry.getDefault());
+    }
+
+    /**
+     * Same as updateFromSerialization(ByteBuffer), resolving the owner in the given registry.
+     * @param buffer Buffer to read from.
+     * @param players Players the owner is looked up in.
+     */
+    public void updateFromSerialization(ByteBuffer buffer, PlayerRegistry players) {
+        Player newOwner = players.get(buffer.get());
+        if(isView && !newOwner.equals(owner))
+            throw new IllegalStateException("Cannot change owner of a fleet stored in a FleetTable. Had "+owner+", got "+newOwner);
+        owner = newOwner;
+        int red = VarInt.get(buffer);
+        int blue = VarInt.get(buffer);
+        int green = VarInt.get(buffer);
+        setPoints(red,blue,green);
     }
 
     @Override
     public int getSerializedSize() {
-        return 16;
+        return 1+VarInt.size(ships[offset+RED])+VarInt.size(ships[offset+BLUE])+VarInt.size(ships[offset+GREEN]);
     }
 
     /**
@@ -155,9 +225,9 @@ public class Fleet implements ByteSerializeable {
 
     public String toString() {
         return "[Fleet owner="+owner.toString()+
-                " reds="+ redCrafts +
-                " blues="+ blueCrafts +
-                " greens= "+ greenCrafts +"]";
+                " reds="+ (float) ships[offset+RED]/SHIP_POINTS +
+                " blues="+ (float) ships[offset+BLUE]/SHIP_POINTS +
+                " greens= "+ (float) ships[offset+GREEN]/SHIP_POINTS +"]";
     }
 
     public enum ShipType {
@@ -169,34 +239,4 @@ public class Fleet implements ByteSerializeable {
             return ShipType.values()[ord];
         }
     }
-
-    private class Ships {
-        private float shipNum;
-
-        private Ships(float number) { this.shipNum = number; }
-
-        private short getNum() { return (short) FloatMath.ceil(shipNum); }
-        private void add(Ships s) { shipNum += s.shipNum;}
-        private void add(float q) { shipNum += q;}
-        private void set(float q) { shipNum = q;}
-        private void subtract(Ships s) {shipNum = Math.max(0,shipNum-s.shipNum);}
-
-        /**
-         * Damage this ship type.
-         * @param dmg Amount of damage done.
-         * @param multiplier Damage multiplier to this ship type.
-         * @return Damage left over because number of ships reached 0.
-         */
-        private float damage(float dmg,float multiplier) {
-            //Damage done is either the entire HP pool, or the total damage.
-            float damageDone = Math.min(shipNum*SHIP_HP,dmg*multiplier);
-
-            shipNum -= damageDone/SHIP_HP;
-            return dmg - damageDone;
-        }
-
-        public String toString() {
-            return "[Ships: "+shipNum+"]";
-        }
-    }
 }
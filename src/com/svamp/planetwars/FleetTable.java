@@ -0,0 +1,94 @@
+package com.svamp.planetwars;
+
+import com.svamp.planetwars.network.Player;
+
+/**
+ * Ship counts of every fleet on a map, in one primitive array indexed by (star, player slot, ship type).
+ * All fleets at a star lie next to each other, so combat at a star walks one short stretch of memory
+ * and allocates nothing. Fleet objects handed out by the table are views writing straight into it.
+ * A player's slot is its player number; the neutral player has slot 0.
+ */
+public class FleetTable {
+    /** Number of player slots per star, the neutral player included. */
+    public final static int MAX_PLAYERS = 8;
+    final static int NUM_TYPES = 3;
+    //Ints used by one star.
+    final static int STAR_STRIDE = MAX_PLAYERS*NUM_TYPES;
+
+    private final int[] ships;
+    private final int numStars;
+
+    /**
+     * @param numStars Number of stars to hold fleets for.
+     */
+    public FleetTable(int numStars) {
+        this.numStars=numStars;
+        this.ships = new int[numStars*STAR_STRIDE];
+    }
+
+    public int getNumStars() { return numStars; }
+
+    /**
+     * Get a fleet view of the given player's ships at a star. Changes to the view change the table.
+     * @param star Index of star.
+     * @param owner Owner of the fleet.
+     * @return Fleet backed by this table.
+     */
+    public Fleet getFleet(int star, Player owner) {
+        return new Fleet(owner,ships,offset(star,slotOf(owner)));
+    }
+
+    /**
+     * Remove all ships of a player at a star.
+     * @param star Index of star.
+     * @param owner Player whose ships to remove.
+     */
+    public void clear(int star, Player owner) {
+        int o = offset(star,slotOf(owner));
+        for(int i=0;i<NUM_TYPES;i++)
+            ships[o+i]=0;
+    }
+
+    /**
+     * Remove all ships at a star.
+     * @param star Index of star.
+     */
+    public void clear(int star) {
+        int o = star*STAR_STRIDE;
+        for(int i=0;i<STAR_STRIDE;i++)
+            ships[o+i]=0;
+    }
+
+    /**
+     * Copy the ship numbers of every player slot at a star.
+     * @param star Index of star.
+     * @param dest Array to copy to. Receives STAR_STRIDE ints, fixed point.
+     * @param o Offset in dest.
+     */
+    void copyStar(int star, int[] dest, int o) {
+        System.arraycopy(ships,star*STAR_STRIDE,dest,o,STAR_STRIDE);
+    }
+
+    /**
+     * Resolve one battle tick at a star. @see CombatKernel
+     * @param star Index of star.
+     * @param home Owner of the star.
+     * @param target Attacker the home fleet fires at.
+     * @param dt Time interval fought (seconds)
+     * @param damage Scratch damage matrix of STAR_STRIDE ints.
+     */
+    void resolveBattle(int star, Player home, Player target, float dt, int[] damage) {
+        CombatKernel.resolve(ships,star*STAR_STRIDE,slotOf(home),slotOf(target),CombatKernel.toMillis(dt),damage);
+    }
+
+    private static int offset(int star, int slot) {
+        return star*STAR_STRIDE+slot*NUM_TYPES;
+    }
+
+    private static int slotOf(Player player) {
+        int slot = player.getPlayerNum();
+        if(slot<0 || slot>=MAX_PLAYERS)
+            throw new IllegalArgumentException("Player "+player+" has no fleet slot. Slots are 0-"+(MAX_PLAYERS-1));
+        return slot;
+    }
+}
@@ -42,6 +42,8 @@ public class GameActivity extends Activity implements DataPacketListener,View.On
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        //Send log output from shared game code to logcat.
+        com.svamp.planetwars.util.Log.setSink(new AndroidLogSink());
         //Initialize the TextureTool
         TextureTool.getInstance().initialize(getResources());
         ShaderTool.init(getResources());
@@ -97,6 +99,7 @@ public class GameActivity extends Activity implements DataPacketListener,View.On
     public void onDestroy() {
         super.onDestroy();
         Log.d(TAG,"Destroyed. Shutting down comm");
+        if(starView!=null) starView.stop();
         shutDownNetworking();
     }
 
@@ -7,13 +7,12 @@ import com.svamp.planetwars.network.GameClient;
 import com.svamp.planetwars.network.GameEvent;
 import com.svamp.planetwars.network.PackageHeader;
 import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.network.PlayerRegistry;
 import com.svamp.planetwars.sprite.StarSprite;
 import com.svamp.planetwars.sprite.hud.Hud;
 
 import javax.microedition.khronos.opengles.GL10;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 
 public class GameEngine implements DataPacketListener {
     private final StarMap starMap;
@@ -24,8 +23,8 @@ public class GameEngine implements DataPacketListener {
 
     //static pointer to current player..
     private static Player curPlayer;
-    //Map containing all players in the game.
-    private static final Map<Integer,Player> players = new HashMap<Integer,Player>();
+    //Registry containing all players in the game.
+    private static final PlayerRegistry players = PlayerRegistry.getDefault();
     //Our networker
     private final GameClient communicator;
 
@@ -33,10 +32,9 @@ public class GameEngine implements DataPacketListener {
 
     public GameEngine(GameClient communicator) {
         curPlayer=communicator.getPlayer();
-        players.put(curPlayer.getElementHash(),curPlayer);
-        players.put(Player.getNeutral().getElementHash(),Player.getNeutral());
+        players.add(curPlayer);
         for(Player player : communicator.getPeers())
-            players.put(player.getElementHash(),player);
+            players.add(player);
 
         Log.d(TAG,"Built Player database: "+players.toString());
 
@@ -57,11 +55,13 @@ public class GameEngine implements DataPacketListener {
 
     /**
      * Update call thrown from GameRenderer. Called synchronously with draw(). Update positions and animations.
+     * Starts a frame: star state holds still until draw() ends it.
      * @param dt Time passed since last call.
      */
     public void update(float dt) {
+        starMap.beginFrame();
         //NEVER UPDATE STARMAP HERE! STARS ARE STATIC; AND ONLY TO BE MANUALLY CHANGED FROM HOST!
-        shipMap.update(dt);
+        shipMap.update();
         hud.update(dt);
     }
 
@@ -73,6 +73,7 @@ public class GameEngine implements DataPacketListener {
         starMap.draw(glUnused, mvpMatrix);
         shipMap.draw(glUnused, mvpMatrix);
         hud.draw(glUnused, mvpMatrix);
+        starMap.endFrame();
     }
 
     /**
@@ -110,11 +111,8 @@ public class GameEngine implements DataPacketListener {
      * @return The player on this device.
      */
     public static Player getPlayer() { return curPlayer; }
-    public static Player getPlayer(int hash) {
-        if(!players.containsKey(hash)) throw new IllegalArgumentException("Error! player with hash "+hash+" not found in the following collection:"+players.toString());
-        return players.get(hash);
-    }
-    public static Collection<Player> getPlayers() { return players.values(); }
+    public static Player getPlayer(int playerNum) { return players.get(playerNum); }
+    public static Collection<Player> getPlayers() { return players.getPlayers(); }
 
     @Override
     public void receive(GameEvent packet) {
@@ -122,4 +120,11 @@ public class GameEngine implements DataPacketListener {
     }
 
     public Hud getHud() { return hud; }
+
+    /**
+     * Stop the threads of the game. Call when it is not shown again.
+     */
+    public void stop() {
+        hud.stop();
+    }
 }
@@ -0,0 +1,431 @@
+package com.svamp.planetwars;
+
+import com.svamp.planetwars.network.Player;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact copy of the state of a match: stars, their fleets and owners, and fleets in flight.
+ * Holds no sprites, GL buffers or network objects, and may be played forward without touching the live map,
+ * for lookahead by bots and for what-if previews.
+ * fork() makes an independent copy in time proportional to the number of pages, not of stars:
+ * stars are stored in pages of PAGE_SIZE shared between a state and its forks, and a shared page is only
+ * copied when one of them first changes a star on it. Flights are copied on first change the same way.
+ * advance(dt) follows the rules of the host: BattleField ticks on a common battle clock, CombatKernel
+ * resolves the battles, and flights land in order of arrival after the battles of the same update.
+ * Stars are known by index, players by fleet slot (player number). Not thread safe; give each thread its own fork.
+ */
+public final class GameState {
+    private final static int PAGE_BITS = 4;
+    private final static int PAGE_SIZE = 1<<PAGE_BITS;
+    private final static int PAGE_MASK = PAGE_SIZE-1;
+    //Parameters of the FNV-1a hash used by checksum().
+    private final static long FNV_OFFSET = 0xcbf29ce484222325L;
+    private final static long FNV_PRIME = 0x100000001b3L;
+
+    //Never changed after capture. Shared by all forks.
+    private final Layout layout;
+    private final Page[] pages;
+    //Pages this state may change in place. The others are shared with a fork and copied first.
+    private final boolean[] ownPages;
+    private Flights flights;
+    private boolean ownFlights;
+    //Time on the map's clock. Seconds.
+    private double time;
+    //Time since the last battle tick, and number of battle ticks run since capture.
+    private float battleTime;
+    private int battleTick = 0;
+    //Scratch damage matrix for CombatKernel.
+    private final int[] damage = new int[FleetTable.STAR_STRIDE];
+
+    /**
+     * Capture the state of a map.
+     * @param stars Stars of the map, in index order. Their battlefields must be up to date with the battle clock.
+     * @param centers Center of each star, as x,y pairs in index order.
+     * @param players Players that may own fleets on the map.
+     * @param time Time on the map's clock. Seconds.
+     * @param battleTime Time since the last battle tick. Seconds.
+     */
+    public GameState(List<? extends Star> stars, float[] centers, Collection<Player> players, double time, float battleTime) {
+        int numStars = stars.size();
+        this.layout = new Layout(numStars);
+        this.pages = new Page[(numStars+PAGE_MASK)>>PAGE_BITS];
+        this.ownPages = new boolean[pages.length];
+        for(int p=0;p<pages.length;p++) {
+            pages[p] = new Page();
+            ownPages[p] = true;
+        }
+        layout.players[0] = Player.getNeutral();
+        for(Player player : players)
+            layout.players[player.getPlayerNum()] = player;
+        for(int i=0;i<numStars;i++) {
+            Star star = stars.get(i);
+            BattleField battleField = star.getBattleField();
+            layout.x[i] = centers[2*i];
+            layout.y[i] = centers[2*i+1];
+            layout.buildTicks[i] = BattleField.buildTicks(star.getSize());
+            layout.buildPhases[i] = battleField.getTickNum()%layout.buildTicks[i];
+            Page page = pages[i>>PAGE_BITS];
+            int s = i&PAGE_MASK;
+            battleField.copyFleets(page.ships,s*FleetTable.STAR_STRIDE);
+            page.owners[s] = battleField.getHomeFleet().getOwner().getPlayerNum();
+            page.buildTypes[s] = (byte) star.getBuildType().ordinal();
+            for(int slot=0;slot<FleetTable.MAX_PLAYERS;slot++)
+                if(slot!=page.owners[s] && battleField.getFleetInSlot(slot)!=null)
+                    page.attackers[s] |= 1<<slot;
+        }
+        this.flights = new Flights(8);
+        this.ownFlights = true;
+        this.time = time;
+        this.battleTime = battleTime;
+    }
+
+    private GameState(GameState other) {
+        this.layout = other.layout;
+        this.pages = other.pages.clone();
+        this.ownPages = new boolean[pages.length];
+        this.flights = other.flights;
+        this.ownFlights = false;
+        this.time = other.time;
+        this.battleTime = other.battleTime;
+        this.battleTick = other.battleTick;
+    }
+
+    /**
+     * Make an independent copy of this state. Changes to either are not seen by the other.
+     * @return Copy of this state.
+     */
+    public GameState fork() {
+        //Everything is shared from now on. Whoever changes a page first copies it.
+        Arrays.fill(ownPages,false);
+        ownFlights = false;
+        return new GameState(this);
+    }
+
+    /**
+     * Play the match forward by one host update.
+     * @param dt Time passed. Seconds. Like on the host, damage done in a battle tick is proportional to it.
+     */
+    public void advance(float dt) {
+        battleTime+=dt;
+        if(battleTime>=BattleField.TICK_LENGTH) {
+            battleTime-=BattleField.TICK_LENGTH;
+            battleTick++;
+            for(int i=0;i<layout.numStars;i++)
+                tickStar(i,dt);
+        }
+        while(flights.count>0 && flights.arrivals[flights.first]<=time+dt)
+            land();
+        time+=dt;
+    }
+
+    //Rules of BattleField.tick, on this state's arrays. Reads first, and only takes a page for writing if something happens.
+    private void tickStar(int star, float dt) {
+        Page page = pages[star>>PAGE_BITS];
+        int s = star&PAGE_MASK;
+        int o = s*FleetTable.STAR_STRIDE;
+        int home = page.owners[s];
+        if(home!=0 && (layout.buildPhases[star]+battleTick)%layout.buildTicks[star]==0
+                && sum(page.ships,o+home*FleetTable.NUM_TYPES) < BattleField.MAX_UNITS_FOR_BUILD) {
+            page = writablePage(star);
+            page.ships[o+home*FleetTable.NUM_TYPES+page.buildTypes[s]] += Fleet.SHIP_POINTS;
+        }
+        //The home fleet fires at the attacker with the lowest player number. A fleet that landed attacks until
+        //beaten, even with no ships.
+        if(page.attackers[s]==0) return;
+        int target = Integer.numberOfTrailingZeros(page.attackers[s]);
+        page = writablePage(star);
+        CombatKernel.resolve(page.ships,o,home,target,CombatKernel.toMillis(dt),damage);
+        if(sum(page.ships,o+home*FleetTable.NUM_TYPES)==0) {
+            //The attacker takes the star.
+            clear(page.ships,o+home*FleetTable.NUM_TYPES);
+            page.owners[s]=(byte) target;
+            page.attackers[s] &= ~(1<<target);
+        } else if(sum(page.ships,o+target*FleetTable.NUM_TYPES)==0) {
+            clear(page.ships,o+target*FleetTable.NUM_TYPES);
+            page.attackers[s] &= ~(1<<target);
+        }
+    }
+
+    //Hand the first flight to its target star.
+    private void land() {
+        Flights f = writableFlights();
+        int i = f.first;
+        Page page = writablePage(f.dests[i]);
+        int s = f.dests[i]&PAGE_MASK;
+        int o = s*FleetTable.STAR_STRIDE+f.slots[i]*FleetTable.NUM_TYPES;
+        for(int t=0;t<FleetTable.NUM_TYPES;t++)
+            page.ships[o+t] += f.ships[i*FleetTable.NUM_TYPES+t];
+        if(f.slots[i]!=page.owners[s]) page.attackers[s] |= 1<<f.slots[i];
+        f.first++;
+        f.count--;
+    }
+
+    /**
+     * Send ships, by the rules of SimShipMap.sendShips.
+     * @param source Index of star to send from.
+     * @param target Index of star to send to.
+     * @param slot Player slot of sender.
+     * @param red Number of red ships.
+     * @param green Number of green ships.
+     * @param blue Number of blue ships.
+     * @return True if sent, false if the player does not have the ships at the source.
+     */
+    public boolean send(int source, int target, int slot, int red, int green, int blue) {
+        if(source==target) return false;
+        Page page = pages[source>>PAGE_BITS];
+        int o = (source&PAGE_MASK)*FleetTable.STAR_STRIDE+slot*FleetTable.NUM_TYPES;
+        if(page.owners[source&PAGE_MASK]!=slot && sum(page.ships,o)==0) return false; //No fleet here.
+        if(red>Fleet.wholeShips(page.ships[o+Fleet.RED]) || green>Fleet.wholeShips(page.ships[o+Fleet.GREEN])
+                || blue>Fleet.wholeShips(page.ships[o+Fleet.BLUE])) return false;
+        page = writablePage(source);
+        int redPoints = red*Fleet.SHIP_POINTS, greenPoints = green*Fleet.SHIP_POINTS, bluePoints = blue*Fleet.SHIP_POINTS;
+        page.ships[o+Fleet.RED] = Math.max(0,page.ships[o+Fleet.RED]-redPoints);
+        page.ships[o+Fleet.GREEN] = Math.max(0,page.ships[o+Fleet.GREEN]-greenPoints);
+        page.ships[o+Fleet.BLUE] = Math.max(0,page.ships[o+Fleet.BLUE]-bluePoints);
+        float dx = layout.x[target]-layout.x[source];
+        float dy = layout.y[target]-layout.y[source];
+        addFlight(target,slot,redPoints,greenPoints,bluePoints,time+Math.sqrt(dx*dx+dy*dy)/Fleet.MAX_SPEED);
+        return true;
+    }
+
+    /**
+     * Add a fleet in flight.
+     * @param target Index of star it flies to.
+     * @param fleet Fleet flying.
+     * @param arrival Time of arrival on the map's clock. Seconds.
+     */
+    public void addFlight(int target, Fleet fleet, double arrival) {
+        addFlight(target,fleet.getOwner().getPlayerNum(),fleet.getPoints(Fleet.ShipType.RED_SHIP),
+                fleet.getPoints(Fleet.ShipType.GREEN_SHIP),fleet.getPoints(Fleet.ShipType.BLUE_SHIP),arrival);
+    }
+
+    //Ship numbers in fixed point units.
+    private void addFlight(int target, int slot, int red, int green, int blue, double arrival) {
+        Flights f = writableFlights();
+        f.insert(target,(byte) slot,red,green,blue,arrival);
+    }
+
+    public void setBuildType(int star, Fleet.ShipType type) {
+        writablePage(star).buildTypes[star&PAGE_MASK] = (byte) type.ordinal();
+    }
+
+    public int numStars() { return layout.numStars; }
+    public int numFlights() { return flights.count; }
+    public double getTime() { return time; }
+
+    /** @return Player slot owning a star. 0 if neutral. */
+    public int getOwner(int star) { return pages[star>>PAGE_BITS].owners[star&PAGE_MASK]; }
+
+    /**
+     * @return Number of ships of a type a player has at a star. Partially destroyed ones count as whole.
+     */
+    public int getShips(int star, int slot, Fleet.ShipType type) {
+        return Fleet.wholeShips(pages[star>>PAGE_BITS].ships[(star&PAGE_MASK)*FleetTable.STAR_STRIDE+slot*FleetTable.NUM_TYPES+type.ordinal()]);
+    }
+
+    /** @return Number of whole ships a player has at a star. */
+    public int getShipCount(int star, int slot) {
+        return sum(pages[star>>PAGE_BITS].ships,(star&PAGE_MASK)*FleetTable.STAR_STRIDE+slot*FleetTable.NUM_TYPES);
+    }
+
+    public Fleet.ShipType getBuildType(int star) {
+        return Fleet.ShipType.getByOrdinal(pages[star>>PAGE_BITS].buildTypes[star&PAGE_MASK]);
+    }
+
+    /**
+     * @return Number of whole ships a player has, at stars and in flight.
+     */
+    public int getTotalShips(int slot) {
+        int total = 0;
+        for(int i=0;i<layout.numStars;i++)
+            total += getShipCount(i,slot);
+        for(int k=flights.first;k<flights.first+flights.count;k++)
+            if(flights.slots[k]==slot) total += sum(flights.ships,k*FleetTable.NUM_TYPES);
+        return total;
+    }
+
+    /**
+     * Hash of everything that decides how the match goes on: ships, owners, attackers, build orders and build progress of
+     * every star, flights, and both clocks. States played the same way from the same start have the same checksum.
+     * @return Checksum of this state.
+     */
+    public long checksum() {
+        long hash = FNV_OFFSET;
+        for(int i=0;i<layout.numStars;i++) {
+            Page page = pages[i>>PAGE_BITS];
+            int s = i&PAGE_MASK;
+            for(int k=0;k<FleetTable.STAR_STRIDE;k++)
+                hash = mix(hash,page.ships[s*FleetTable.STAR_STRIDE+k]);
+            hash = mix(hash,page.owners[s]);
+            hash = mix(hash,page.attackers[s]);
+            hash = mix(hash,page.buildTypes[s]);
+            hash = mix(hash,(layout.buildPhases[i]+battleTick)%layout.buildTicks[i]);
+        }
+        for(int k=flights.first;k<flights.first+flights.count;k++) {
+            long arrival = Double.doubleToLongBits(flights.arrivals[k]);
+            hash = mix(mix(hash,(int) arrival),(int) (arrival>>>32));
+            hash = mix(mix(hash,flights.dests[k]),flights.slots[k]);
+            for(int t=0;t<FleetTable.NUM_TYPES;t++)
+                hash = mix(hash,flights.ships[k*FleetTable.NUM_TYPES+t]);
+        }
+        long clock = Double.doubleToLongBits(time);
+        hash = mix(mix(hash,(int) clock),(int) (clock>>>32));
+        return mix(hash,Float.floatToIntBits(battleTime));
+    }
+
+    //FNV-1a, an int at a time.
+    private static long mix(long hash, int value) {
+        return (hash^value)*FNV_PRIME;
+    }
+
+    public float getX(int star) { return layout.x[star]; }
+    public float getY(int star) { return layout.y[star]; }
+
+    /**
+     * @return Player in a fleet slot, or null if the slot is not in use.
+     */
+    public Player getPlayer(int slot) { return layout.players[slot]; }
+
+    private Page writablePage(int star) {
+        int p = star>>PAGE_BITS;
+        if(!ownPages[p]) {
+            pages[p] = pages[p].copy();
+            ownPages[p] = true;
+        }
+        return pages[p];
+    }
+
+    private Flights writableFlights() {
+        if(!ownFlights) {
+            flights = flights.copy();
+            ownFlights = true;
+        }
+        return flights;
+    }
+
+    //Whole ships of a fleet, as counted by Fleet.sum().
+    private static int sum(int[] ships, int o) {
+        return Fleet.wholeShips(ships[o])+Fleet.wholeShips(ships[o+1])+Fleet.wholeShips(ships[o+2]);
+    }
+
+    private static void clear(int[] ships, int o) {
+        for(int t=0;t<FleetTable.NUM_TYPES;t++)
+            ships[o+t]=0;
+    }
+
+    /**
+     * What never changes in a match. Shared by a state and all its forks.
+     */
+    private static class Layout {
+        private final int numStars;
+        private final float[] x;
+        private final float[] y;
+        private final int[] buildTicks;
+        //A star builds on battle ticks where (phase+tick) is a multiple of its buildTicks.
+        private final int[] buildPhases;
+        private final Player[] players = new Player[FleetTable.MAX_PLAYERS];
+
+        private Layout(int numStars) {
+            this.numStars=numStars;
+            this.x = new float[numStars];
+            this.y = new float[numStars];
+            this.buildTicks = new int[numStars];
+            this.buildPhases = new int[numStars];
+        }
+    }
+
+    /**
+     * State of PAGE_SIZE consecutive stars, laid out like a FleetTable.
+     */
+    private static class Page {
+        //Fixed point, see Fleet.
+        private final int[] ships;
+        private final byte[] owners;
+        private final byte[] buildTypes;
+        //Slots attacking the home fleet of each star, one bit per slot, as BattleField's attacking flags.
+        private final int[] attackers;
+
+        private Page() {
+            this(new int[PAGE_SIZE*FleetTable.STAR_STRIDE],new byte[PAGE_SIZE],new byte[PAGE_SIZE],new int[PAGE_SIZE]);
+        }
+
+        private Page(int[] ships, byte[] owners, byte[] buildTypes, int[] attackers) {
+            this.ships=ships;
+            this.owners=owners;
+            this.buildTypes=buildTypes;
+            this.attackers=attackers;
+        }
+
+        private Page copy() {
+            return new Page(ships.clone(),owners.clone(),buildTypes.clone(),attackers.clone());
+        }
+    }
+
+    /**
+     * Fleets in flight, sorted by arrival. Fleets arriving at the same time are kept in the order they were added.
+     * In use are entries first to first+count-1.
+     */
+    private static class Flights {
+        private double[] arrivals;
+        private int[] dests;
+        private byte[] slots;
+        private int[] ships;
+        private int first = 0;
+        private int count = 0;
+
+        private Flights(int capacity) {
+            arrivals = new double[capacity];
+            dests = new int[capacity];
+            slots = new byte[capacity];
+            ships = new int[capacity*FleetTable.NUM_TYPES];
+        }
+
+        private void insert(int dest, byte slot, int red, int green, int blue, double arrival) {
+            if(first+count==arrivals.length) {
+                //Out of room at the end. Move to the front, and grow if that is not enough.
+                int capacity = count*2>arrivals.length ? arrivals.length*2 : arrivals.length;
+                Flights moved = new Flights(capacity);
+                moved.copyFrom(this);
+                arrivals=moved.arrivals;
+                dests=moved.dests;
+                slots=moved.slots;
+                ships=moved.ships;
+                first=0;
+            }
+            //Insert after every flight arriving no later.
+            int i = first+count;
+            while(i>first && arrivals[i-1]>arrival) {
+                arrivals[i]=arrivals[i-1];
+                dests[i]=dests[i-1];
+                slots[i]=slots[i-1];
+                System.arraycopy(ships,(i-1)*FleetTable.NUM_TYPES,ships,i*FleetTable.NUM_TYPES,FleetTable.NUM_TYPES);
+                i--;
+            }
+            arrivals[i]=arrival;
+            dests[i]=dest;
+            slots[i]=slot;
+            ships[i*FleetTable.NUM_TYPES+Fleet.RED]=red;
+            ships[i*FleetTable.NUM_TYPES+Fleet.GREEN]=green;
+            ships[i*FleetTable.NUM_TYPES+Fleet.BLUE]=blue;
+            count++;
+        }
+
+        private Flights copy() {
+            Flights copy = new Flights(Math.max(8,count*2));
+            copy.copyFrom(this);
+            return copy;
+        }
+
+        //Copy the flights of other to the start of this.
+        private void copyFrom(Flights other) {
+            System.arraycopy(other.arrivals,other.first,arrivals,0,other.count);
+            System.arraycopy(other.dests,other.first,dests,0,other.count);
+            System.arraycopy(other.slots,other.first,slots,0,other.count);
+            System.arraycopy(other.ships,other.first*FleetTable.NUM_TYPES,ships,0,other.count*FleetTable.NUM_TYPES);
+            count=other.count;
+        }
+    }
+}
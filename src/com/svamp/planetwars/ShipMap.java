@@ -1,35 +1,37 @@
 package com.svamp.planetwars;
 
-import android.util.Log;
-import com.svamp.planetwars.network.AbstractGameCommunicator;
 import com.svamp.planetwars.network.DataPacketListener;
 import com.svamp.planetwars.network.GameClient;
 import com.svamp.planetwars.network.GameEvent;
-import com.svamp.planetwars.network.GameHost;
-import com.svamp.planetwars.network.PackageHeader;
+import com.svamp.planetwars.network.HostClock;
 import com.svamp.planetwars.sprite.ShipSprite;
 import com.svamp.planetwars.sprite.StarSprite;
 
 import javax.microedition.khronos.opengles.GL10;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
  * Eyecandy class containing all the fancy animations for flying ships.
+ * Fleets sent along a route while the previous ship on it has just left join that ship,
+ * so a stream of dispatches is drawn as one ship rather than one per packet.
  */
 public class ShipMap implements DataPacketListener {
     //Thread safe set. RLY SLOW! todo: learn thread safety so we can do better.
     private final Set<ShipSprite> ships = new CopyOnWriteArraySet<ShipSprite>();
+    //Latest ship on each route, keyed by route(). Guarded by itself.
+    private final Map<Long,ShipSprite> routes = new HashMap<Long,ShipSprite>();
     private final StarMap starMap;
-    private final AbstractGameCommunicator communicator;
+    //Ships are placed by host time.
+    private final HostClock clock;
 
-    private static final String TAG = ShipMap.class.getCanonicalName();
-
-    public ShipMap(AbstractGameCommunicator communicator,StarMap starMap) {
-        this.communicator=communicator;
+    public ShipMap(GameClient communicator,StarMap starMap) {
         this.starMap=starMap;
-        if(communicator instanceof GameClient) ((GameClient) communicator).registerListener(this);
+        this.clock=communicator.getHostClock();
+        communicator.registerListener(this);
     }
 
     public void draw(GL10 glUnused, float[] mvpMatrix) {
@@ -37,9 +39,13 @@ public class ShipMap implements DataPacketListener {
             ship.draw(glUnused, mvpMatrix);
         }
     }
-    public void update(float dt) {
+    /**
+     * Place all ships where they are now. Ship positions depend on time only, not on how often this is called.
+     */
+    public void update() {
+        double now = clock.now();
         for(ShipSprite ship : ships) {
-            ship.update(dt);
+            ship.update(now);
         }
     }
 
@@ -48,67 +54,39 @@ public class ShipMap implements DataPacketListener {
         switch (packet.getHeader()) {
             case FLEET_DISPATCHED:
                 ByteBuffer buffer = ByteBuffer.wrap(packet.getPayload());
-                StarSprite source = starMap.getStarWithHash(buffer.getInt());
-                StarSprite target = starMap.getStarWithHash(buffer.getInt());
+                StarSprite source = starMap.getStar(buffer.getInt());
+                StarSprite target = starMap.getStar(buffer.getInt());
+                double departure = buffer.getDouble();
+                float speed = buffer.getFloat();
                 Fleet fleet = new Fleet(buffer);
-                //Make new ship sprite. This is only eyecandy. No star states change from this sprite.
-                ShipSprite shipSprite = new ShipSprite(this,fleet);
-                shipSprite.setSrc(source);
-                shipSprite.setDest(target);
-                ships.add(shipSprite);
+                Long route = route(source,target);
+                synchronized (routes) {
+                    ShipSprite last = routes.get(route);
+                    if(last!=null && last.join(fleet,departure)) break;
+                    //Make new ship sprite. This is only eyecandy. No star states change from this sprite.
+                    ShipSprite shipSprite = new ShipSprite(this,fleet);
+                    shipSprite.setSrc(source);
+                    shipSprite.setDest(target,departure,speed);
+                    routes.put(route,shipSprite);
+                    ships.add(shipSprite);
+                }
                 break;
         }
     }
 
-    /**
-     * Instruction in Host ordering a fleet to be sent.
-     * Validates the move and subtracts the fleet from source.
-     * It's up to Host to give fleet to target star on arrival.
-     * @param buffer ByteBuffer describing the action.
-     * @return True if this is an allowed action, false otherwise.
-     */
-    public boolean sendShips(ByteBuffer buffer) {
-        StarSprite source = starMap.getStarWithHash(buffer.getInt());
-        StarSprite target = starMap.getStarWithHash(buffer.getInt());
-        //Dummy fleet.
-        Fleet fleet = new Fleet(buffer);
-        //Source same as target? Not allowed!
-        if(source.equals(target)) return false;
-
-        //Find fleet belonging to owner.
-        Fleet starFleet = source.getBattleField().getFleetWithOwner(fleet.getOwner());
-
-        /*
-         * If the fleet in this star is too small to accommodate
-         * splitting out the fleet ordered to be sent, just return false.
-         * Also, return false if this player has no fleet here.
-         */
-        if(!fleet.isSubsetOf(starFleet)) {
-            Log.d(TAG, "Error! Tried to send a starFleet the did not exist! Tried to send:" + fleet + " from fleet " + starFleet);
-            return false;
-        }
-        //Remove the provided number of units from the starFleet.
-        starFleet.subtract(fleet);
-
-        //Send new state.
-        GameEvent event = new GameEvent(PackageHeader.STAR_STATE_CHANGED,fleet.getOwner());
-        ByteBuffer starBuffer = ByteBuffer.allocate(3+source.getSerializedSize());
-        starBuffer.putShort((short)1); //Number of stars affected
-        starBuffer.put((byte)1); //Severity.
-        starBuffer.put(source.getSerialization());
-        event.setPayload(starBuffer.array());
-        communicator.sendData(event.toByteArray());
-        return true;
-    }
-
     public void shipArrived(ShipSprite ship) {
+        //The host hands the fleet to the target star. Here, the animation is simply over.
         ships.remove(ship);
-        //If this map is tied to a host, update some state. Notify host of change.
-        if(communicator instanceof GameHost) {
-            Log.d(TAG,"Host registered that a ship had arrived.");
-            StarSprite dest = ship.getDest();
-            dest.getBattleField().addFleet(ship.getFleet());
-            starMap.fireStarStateChanged(1,dest);
+        Long route = route(ship.getSrc(),ship.getDest());
+        synchronized (routes) {
+            if(routes.get(route)==ship) routes.remove(route);
         }
     }
+
+    /**
+     * @return Key of the route from source to target.
+     */
+    private static Long route(StarSprite source, StarSprite target) {
+        return ((long) source.getElementHash()<<32) | (target.getElementHash() & 0xffffffffL);
+    }
 }
@@ -0,0 +1,22 @@
+package com.svamp.planetwars;
+
+/**
+ * The game mechanic side of a star: what a BattleField needs to know about the star it is fought over.
+ * Implemented by the rendered StarSprite on clients and by the headless SimStar on the host.
+ */
+public interface Star {
+    /**
+     * @return Unique ID of the star: its index in the map, from 0 to the number of stars-1.
+     * Stars are known by it on the wire, and looked up by it in arrays.
+     */
+    int getElementHash();
+
+    /**
+     * @return Diameter of the star. Bigger stars build ships faster.
+     */
+    float getSize();
+
+    Fleet.ShipType getBuildType();
+
+    BattleField getBattleField();
+}
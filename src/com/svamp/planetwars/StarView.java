@@ -59,6 +59,11 @@ public class StarView extends GLSurfaceView implements TouchCallback {
         Log.d(TAG,"GameRenderer initialized.");
     }
 
+    //Stop the game shown. Call when the view is destroyed.
+    void stop() {
+        if(gEngine!=null) gEngine.stop();
+    }
+
     @Override
     public boolean onTouchEvent(MotionEvent event) {
         touchHandler.onTouch(event);
@@ -0,0 +1,106 @@
+package com.svamp.planetwars.bot;
+
+import com.svamp.planetwars.GameState;
+import com.svamp.planetwars.network.GameClient;
+import com.svamp.planetwars.network.GameEvent;
+import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.network.PackageHeader;
+import com.svamp.planetwars.sim.LockstepSimulation;
+import com.svamp.planetwars.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Computer player. Plays through a GameClient like anyone else, sending FLEET_DISPATCHED and NEW_BUILD_ORDERS.
+ * Needs a match run in lockstep, as it searches copies of the client's own run of the match.
+ * Every move is chosen by an MctsSearch spread over a pool, for a fixed time budget. Moves are MOVE_INTERVAL of match
+ * time apart, as the search plans them. The bot stops when the match is over for it: it lost, or nobody else is left.
+ */
+public class MctsBot implements Runnable {
+    private final GameClient client;
+    private final ExecutorService pool;
+    private final int numWorkers;
+    private final long moveBudgetMs;
+    private volatile boolean running = true;
+
+    private static final String TAG = MctsBot.class.getCanonicalName();
+
+    /**
+     * @param client Connected client to play through. The bot starts playing when the match starts.
+     * @param pool Pool running the search.
+     * @param numWorkers Number of trees searched in parallel. Usually the number of cores.
+     * @param moveBudgetMs Time spent choosing each move, in milliseconds.
+     */
+    public MctsBot(GameClient client, ExecutorService pool, int numWorkers, long moveBudgetMs) {
+        this.client=client;
+        this.pool=pool;
+        this.numWorkers=numWorkers;
+        this.moveBudgetMs=moveBudgetMs;
+    }
+
+    public void stop() {
+        running=false;
+    }
+
+    @Override
+    public void run() {
+        MctsSearch search = null;
+        //Build type last ordered per star, or -1. Orders take a turn or more to reach the match; not sent twice.
+        byte[] ordered = null;
+        double lastMove = Double.NEGATIVE_INFINITY;
+        //Set when the match starts. Until the host has handed out player numbers, the client holds a placeholder.
+        Player player = null;
+        int me = 0;
+        try {
+            while(running) {
+                LockstepSimulation lockstep = client.getLockstep();
+                if(lockstep==null) { //Not started yet.
+                    Thread.sleep(100);
+                    continue;
+                }
+                if(search==null) {
+                    player = client.getPlayer();
+                    me = player.getPlayerNum();
+                    search = new MctsSearch(lockstep.getStarMap().getGraph(),pool,numWorkers,new Random().nextLong());
+                    ordered = new byte[lockstep.getStarMap().getGraph().numStars()];
+                    Arrays.fill(ordered,(byte) -1);
+                }
+                GameState state = lockstep.snapshot();
+                //Wait for the match to reach the next move. Turns run in real time.
+                double wait = MctsSearch.MOVE_INTERVAL-(state.getTime()-lastMove);
+                if(wait>0) {
+                    Thread.sleep(Math.max(1,(long) (wait*1000)));
+                    continue;
+                }
+                if(!MctsSearch.isAlive(state,me)) {
+                    Log.d(TAG,"Bot "+me+" has lost.");
+                    return;
+                }
+                if(MctsSearch.numAlive(state)<=1) {
+                    Log.d(TAG,"Bot "+me+" has won.");
+                    return;
+                }
+                lastMove = state.getTime();
+                long deadline = System.currentTimeMillis()+moveBudgetMs;
+                for(GameEvent command : search.play(state,player,lockstep.getTurnLength(),deadline,Integer.MAX_VALUE)) {
+                    if(command.getHeader()==PackageHeader.NEW_BUILD_ORDERS) {
+                        ByteBuffer order = ByteBuffer.wrap(command.getPayload());
+                        int star = order.getInt();
+                        byte type = order.get();
+                        if(ordered[star]==type) continue;
+                        ordered[star]=type;
+                    }
+                    client.sendData(command.toByteArray());
+                }
+                //A star lost and taken back may build something else. Order it again then.
+                for(int star=0;star<ordered.length;star++)
+                    if(state.getOwner(star)!=me) ordered[star]=-1;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
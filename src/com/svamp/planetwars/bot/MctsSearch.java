@@ -0,0 +1,371 @@
+package com.svamp.planetwars.bot;
+
+import com.svamp.planetwars.Fleet;
+import com.svamp.planetwars.FleetTable;
+import com.svamp.planetwars.GameState;
+import com.svamp.planetwars.network.GameEvent;
+import com.svamp.planetwars.network.PackageHeader;
+import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.sim.StarGraph;
+import com.svamp.planetwars.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Chooses the moves of a player by Monte-Carlo tree search over forks of a GameState.
+ * Each worker grows a tree of its own from the same position (root parallelization), and the visits of the
+ * first moves are summed over all trees, so more workers give more playouts per move and better moves.
+ * Tree levels are the player's own moves, MOVE_INTERVAL seconds apart. Other players, and the player itself below
+ * the tree, play a random policy. Positions are scored by the player's share of ships and stars HORIZON seconds ahead.
+ * Moves come out as the commands a client sends, so they can go to a host or straight into a LockstepSimulation.
+ */
+public class MctsSearch {
+    /** Time between a player's moves in the search. Seconds. */
+    public final static float MOVE_INTERVAL = 2f;
+    //How far ahead positions are played out. Seconds.
+    private final static float HORIZON = 20f;
+    //Exploration constant of UCT.
+    private final static double EXPLORATION = 1.4;
+    //Chance that the random policy sends a fleet each move interval.
+    private final static float RANDOM_SEND_CHANCE = 0.5f;
+    //Move doing nothing. Other moves are edge*2, sending all ships along a graph edge, or edge*2+1, sending half.
+    private final static int NO_MOVE = -1;
+
+    //Star graph of the match, and the source star of each of its edges.
+    private final StarGraph graph;
+    private final int[] edgeSources;
+    private final ExecutorService pool;
+    private final int numWorkers;
+    private final Random random;
+
+    private static final String TAG = MctsSearch.class.getCanonicalName();
+
+    /**
+     * @param graph Star graph of the match searched.
+     * @param pool Pool running the workers, or null to run them one after the other on the calling thread.
+     * @param numWorkers Number of trees searched. Usually the number of cores with a pool, and 1 without.
+     * @param seed Seed of the random policy.
+     */
+    public MctsSearch(StarGraph graph, ExecutorService pool, int numWorkers, long seed) {
+        this.graph=graph;
+        this.pool=pool;
+        this.numWorkers=numWorkers;
+        this.random=new Random(seed);
+        this.edgeSources = new int[graph.numEdges()];
+        for(int star=0;star<graph.numStars();star++)
+            for(int e=graph.start(star);e<graph.end(star);e++)
+                edgeSources[e]=star;
+    }
+
+    /**
+     * Search for a move, and make the commands for it.
+     * @param state Position to move from. Not changed.
+     * @param player Player to move for.
+     * @param turnLength Length of the turns the match advances in. Seconds.
+     * @param deadline When to stop searching, in System.currentTimeMillis() time. Long.MAX_VALUE for no limit.
+     * @param maxPlayouts Playouts to stop at, over all workers. Integer.MAX_VALUE for no limit.
+     * @return FLEET_DISPATCHED and NEW_BUILD_ORDERS commands, as a client would send them.
+     */
+    public List<GameEvent> play(GameState state, Player player, float turnLength, long deadline, int maxPlayouts)
+            throws InterruptedException {
+        int me = player.getPlayerNum();
+        int move = search(state,me,turnLength,deadline,maxPlayouts);
+        return commands(state,move,player);
+    }
+
+    /**
+     * Make a move of the random policy used in playouts. For comparison with the search.
+     * @param state Position to move from. Not changed.
+     * @param player Player to move for.
+     * @return Commands for the move, as a client would send them.
+     */
+    public List<GameEvent> playRandom(GameState state, Player player) {
+        return commands(state,randomMove(state,player.getPlayerNum(),random),player);
+    }
+
+    /**
+     * @return True if the player has ships left, at stars or in flight.
+     */
+    public static boolean isAlive(GameState state, int slot) {
+        return state.getTotalShips(slot)>0;
+    }
+
+    /**
+     * @return Number of players with ships left. The match is over when at most one is.
+     */
+    public static int numAlive(GameState state) {
+        int alive=0;
+        for(int p=1;p<FleetTable.MAX_PLAYERS;p++)
+            if(state.getPlayer(p)!=null && isAlive(state,p)) alive++;
+        return alive;
+    }
+
+    /**
+     * @return Score of a position for a player, from 0 to 1: the mean of its share of all ships and of all owned stars.
+     */
+    public static double evaluate(GameState state, int slot) {
+        int ships=0, allShips=0, stars=0, allStars=0;
+        for(int p=1;p<FleetTable.MAX_PLAYERS;p++) {
+            if(state.getPlayer(p)==null) continue;
+            int total = state.getTotalShips(p);
+            allShips+=total;
+            if(p==slot) ships=total;
+        }
+        for(int star=0;star<state.numStars();star++) {
+            int owner = state.getOwner(star);
+            if(owner==0) continue;
+            allStars++;
+            if(owner==slot) stars++;
+        }
+        return 0.5*(allShips==0 ? 0 : (double) ships/allShips)+0.5*(allStars==0 ? 0 : (double) stars/allStars);
+    }
+
+    /**
+     * Search until the deadline or the playout limit.
+     * @return Move with the most visits, summed over all workers.
+     */
+    private int search(GameState state, int me, float turnLength, long deadline, int maxPlayouts) throws InterruptedException {
+        int[] moves = moves(state,me);
+        if(moves.length==1) return NO_MOVE;
+        List<Worker> workers = new ArrayList<Worker>(numWorkers);
+        int playoutsPerWorker = Math.max(1,maxPlayouts/numWorkers);
+        for(int i=0;i<numWorkers;i++) //Fork here. Forking is not thread safe, forks of forks are.
+            workers.add(new Worker(state.fork(),moves,me,turnLength,deadline,playoutsPerWorker,random.nextLong()));
+        List<Node> trees = new ArrayList<Node>(numWorkers);
+        if(pool==null) {
+            for(Worker worker : workers)
+                trees.add(worker.call());
+        } else {
+            for(Future<Node> result : pool.invokeAll(workers)) {
+                try {
+                    trees.add(result.get());
+                } catch (ExecutionException e) {
+                    Log.e(TAG,"Search failed",e.getCause());
+                }
+            }
+        }
+        int[] visits = new int[moves.length];
+        int playouts = 0;
+        for(Node tree : trees) {
+            for(int i=0;i<moves.length;i++)
+                visits[i]+=tree.visits[i];
+            playouts+=tree.numVisits;
+        }
+        int best=0;
+        for(int i=1;i<moves.length;i++)
+            if(visits[i]>visits[best]) best=i;
+        Log.d(TAG,"Player "+me+" chose from "+moves.length+" moves after "+playouts+" playouts.");
+        return moves[best];
+    }
+
+    /**
+     * @return Moves of a player: doing nothing, and sending all or half of each of its fleets to a neighbouring star.
+     */
+    private int[] moves(GameState state, int slot) {
+        int num = 1;
+        for(int star=0;star<state.numStars();star++)
+            if(state.getShipCount(star,slot)>0) num+=2*graph.degree(star);
+        int[] moves = new int[num];
+        moves[0]=NO_MOVE;
+        int i=1;
+        for(int star=0;star<state.numStars();star++) {
+            if(state.getShipCount(star,slot)==0) continue;
+            for(int e=graph.start(star);e<graph.end(star);e++) {
+                moves[i++]=e*2;
+                moves[i++]=e*2+1;
+            }
+        }
+        return moves;
+    }
+
+    private void play(GameState state, int move, int slot) {
+        if(move==NO_MOVE) return;
+        int e = move/2;
+        int source = edgeSources[e];
+        int divisor = move%2==0 ? 1 : 2;
+        state.send(source,graph.target(e),slot,
+                state.getShips(source,slot,Fleet.ShipType.RED_SHIP)/divisor,
+                state.getShips(source,slot,Fleet.ShipType.GREEN_SHIP)/divisor,
+                state.getShips(source,slot,Fleet.ShipType.BLUE_SHIP)/divisor);
+    }
+
+    //Random policy: now and then, send everything at a random star to a random neighbour.
+    private int randomMove(GameState state, int slot, Random rnd) {
+        if(rnd.nextFloat()>=RANDOM_SEND_CHANCE) return NO_MOVE;
+        int chosen=-1, seen=0;
+        for(int star=0;star<state.numStars();star++) {
+            //Reservoir sampling of the stars where the player has ships.
+            if(state.getShipCount(star,slot)>0 && rnd.nextInt(++seen)==0) chosen=star;
+        }
+        if(chosen<0 || graph.degree(chosen)==0) return NO_MOVE;
+        return 2*(graph.start(chosen)+rnd.nextInt(graph.degree(chosen)));
+    }
+
+    /**
+     * Commands for a move: the fleet it sends, if any, and build orders having every owned star build the
+     * ship type strong against the type enemies have most of.
+     */
+    private List<GameEvent> commands(GameState state, int move, Player player) {
+        List<GameEvent> commands = new ArrayList<GameEvent>();
+        int me = player.getPlayerNum();
+        if(move!=NO_MOVE) {
+            int e = move/2;
+            int source = edgeSources[e];
+            int divisor = move%2==0 ? 1 : 2;
+            Fleet fleet = new Fleet(player,
+                    state.getShips(source,me,Fleet.ShipType.RED_SHIP)/divisor,
+                    state.getShips(source,me,Fleet.ShipType.BLUE_SHIP)/divisor,
+                    state.getShips(source,me,Fleet.ShipType.GREEN_SHIP)/divisor);
+            if(!fleet.isEmpty()) {
+                GameEvent event = new GameEvent(PackageHeader.FLEET_DISPATCHED,player);
+                byte[] sentFleet = fleet.getSerialization();
+                ByteBuffer buffer = ByteBuffer.allocate(8+sentFleet.length);
+                buffer.putInt(source).putInt(graph.target(e)).put(sentFleet);
+                event.setPayload(buffer.array());
+                commands.add(event);
+            }
+        }
+        int[] enemyShips = new int[Fleet.ShipType.values().length];
+        for(int star=0;star<state.numStars();star++)
+            for(int p=1;p<FleetTable.MAX_PLAYERS;p++)
+                if(p!=me)
+                    for(Fleet.ShipType type : Fleet.ShipType.values())
+                        enemyShips[type.ordinal()]+=state.getShips(star,p,type);
+        int most=0;
+        for(int t=1;t<enemyShips.length;t++)
+            if(enemyShips[t]>enemyShips[most]) most=t;
+        //Red is strong against green, green against blue, and blue against red.
+        Fleet.ShipType counter = Fleet.ShipType.getByOrdinal((byte) ((most+2)%3));
+        for(int star=0;star<state.numStars();star++) {
+            if(state.getOwner(star)!=me || state.getBuildType(star)==counter) continue;
+            GameEvent event = new GameEvent(PackageHeader.NEW_BUILD_ORDERS,player);
+            event.setPayload(ByteBuffer.allocate(5).putInt(star).put((byte) counter.ordinal()).array());
+            commands.add(event);
+        }
+        return commands;
+    }
+
+    /**
+     * Grows one search tree until the deadline or its playout limit. Owns its root state, and all forks made from it.
+     */
+    private class Worker implements Callable<Node> {
+        private final GameState root;
+        private final int[] rootMoves;
+        private final int me;
+        private final int turnsPerMove;
+        private final float turnLength;
+        private final long deadline;
+        private final int maxPlayouts;
+        private final Random rnd;
+        //Tree levels. The rest of the horizon is played out randomly.
+        private final int maxDepth = (int) (HORIZON/MOVE_INTERVAL);
+        private final Node[] pathNodes = new Node[maxDepth];
+        private final int[] pathMoves = new int[maxDepth];
+
+        private Worker(GameState root, int[] rootMoves, int me, float turnLength, long deadline, int maxPlayouts, long seed) {
+            this.root=root;
+            this.rootMoves=rootMoves;
+            this.me=me;
+            this.turnLength=turnLength;
+            this.turnsPerMove=Math.max(1,Math.round(MOVE_INTERVAL/turnLength));
+            this.deadline=deadline;
+            this.maxPlayouts=maxPlayouts;
+            this.rnd=new Random(seed);
+        }
+
+        @Override
+        public Node call() {
+            Node tree = new Node(rootMoves);
+            while(tree.numVisits<maxPlayouts && System.currentTimeMillis()<deadline)
+                playout(tree);
+            return tree;
+        }
+
+        private void playout(Node tree) {
+            GameState state = root.fork();
+            Node node = tree;
+            int depth=0;
+            //Down the tree, adding one node.
+            while(depth<maxDepth) {
+                int i = node.select();
+                pathNodes[depth]=node;
+                pathMoves[depth]=i;
+                depth++;
+                play(state,node.moves[i],me);
+                step(state);
+                if(node.children[i]==null) {
+                    node.children[i]=new Node(moves(state,me));
+                    break;
+                }
+                node=node.children[i];
+            }
+            //Random play to the horizon.
+            for(int d=depth;d<maxDepth;d++) {
+                play(state,randomMove(state,me,rnd),me);
+                step(state);
+            }
+            double value = evaluate(state,me);
+            for(int d=0;d<depth;d++)
+                pathNodes[d].update(pathMoves[d],value);
+        }
+
+        //Let the other players move, and play one move interval.
+        private void step(GameState state) {
+            for(int p=1;p<FleetTable.MAX_PLAYERS;p++)
+                if(p!=me && state.getPlayer(p)!=null) play(state,randomMove(state,p,rnd),p);
+            for(int t=0;t<turnsPerMove;t++)
+                state.advance(turnLength);
+        }
+    }
+
+    /**
+     * Statistics of the moves from one position.
+     */
+    private static class Node {
+        private final int[] moves;
+        private final Node[] children;
+        private final int[] visits;
+        private final double[] values;
+        private int numVisits = 0;
+        //Moves are tried once each, in order, before UCT chooses.
+        private int numTried = 0;
+
+        private Node(int[] moves) {
+            this.moves=moves;
+            this.children=new Node[moves.length];
+            this.visits=new int[moves.length];
+            this.values=new double[moves.length];
+        }
+
+        /**
+         * @return Index of the move to try next.
+         */
+        private int select() {
+            if(numTried<moves.length) return numTried++;
+            int best=0;
+            double bestScore=Double.NEGATIVE_INFINITY;
+            double logVisits = Math.log(numVisits);
+            for(int i=0;i<moves.length;i++) {
+                double score = values[i]/visits[i]+EXPLORATION*Math.sqrt(logVisits/visits[i]);
+                if(score>bestScore) {
+                    bestScore=score;
+                    best=i;
+                }
+            }
+            return best;
+        }
+
+        private void update(int i, double value) {
+            visits[i]++;
+            values[i]+=value;
+            numVisits++;
+        }
+    }
+}
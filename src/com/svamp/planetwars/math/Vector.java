@@ -1,7 +1,5 @@
 package com.svamp.planetwars.math;
 
-import android.util.FloatMath;
-
 public class Vector {
     public float x;
     public float y;
@@ -30,14 +28,14 @@ public class Vector {
         this.y*=sy;
     }
     public void setLength(float length) {
-        float scale = length/FloatMath.sqrt(lengthSq());
+        float scale = length/(float) Math.sqrt(lengthSq());
         x*=scale;
         y*=scale;
     }
 
     public void rotate(float angle) {
-        float newX = x*FloatMath.cos(angle)-y*FloatMath.sin(angle);
-        y = x*FloatMath.sin(angle)+y*FloatMath.cos(angle);
+        float newX = x*(float) Math.cos(angle)-y*(float) Math.sin(angle);
+        y = x*(float) Math.sin(angle)+y*(float) Math.cos(angle);
         x=newX;
     }
 
@@ -46,7 +44,7 @@ public class Vector {
     }
 
     public float distanceTo(Vector v) {
-        return FloatMath.sqrt(distanceToSq(v));
+        return (float) Math.sqrt(distanceToSq(v));
     }
     public float distanceToSq(Vector v) {
         return (x-v.x)*(x-v.x)+(y-v.y)*(y-v.y);
@@ -60,7 +58,7 @@ public class Vector {
      * Takes a vector (radius,angle) and converts it to the (x,y) version
      */
     public static void toCartesian(Vector rad) {
-        rad.set(rad.x*FloatMath.cos(rad.y),rad.x*FloatMath.sin(rad.y));
+        rad.set(rad.x*(float) Math.cos(rad.y),rad.x*(float) Math.sin(rad.y));
     }
 
     public static Vector sum(Vector ... args) {
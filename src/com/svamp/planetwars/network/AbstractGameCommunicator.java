@@ -1,6 +1,6 @@
 package com.svamp.planetwars.network;
 
-import android.util.Log;
+import com.svamp.planetwars.util.Log;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
@@ -17,6 +17,10 @@ import java.util.Collection;
  */
 public abstract class AbstractGameCommunicator {
     private final int port;
+    //Communicator owning the socket this one sends through, if it has none of its own.
+    private final AbstractGameCommunicator transport;
+    //Written into every packet sent.
+    private byte matchId = GameEvent.NO_MATCH;
     private DatagramSocket socket;
     private SocketReaderThread reader;
     private SocketWriterThread writer;
@@ -30,6 +34,17 @@ public abstract class AbstractGameCommunicator {
      */
     AbstractGameCommunicator(int portNum) {
         this.port=portNum;
+        this.transport=null;
+    }
+
+    /**
+     * Constructor for a networker sharing the socket of another.
+     * Packets for this one must be routed to its receiveData by the transport.
+     * @param transport Communicator owning the socket.
+     */
+    AbstractGameCommunicator(AbstractGameCommunicator transport) {
+        this.port=transport.port;
+        this.transport=transport;
     }
 
     /**
@@ -37,6 +52,7 @@ public abstract class AbstractGameCommunicator {
      * @throws IOException If host cannot be reached
      */
     public void start() throws IOException {
+        if(transport!=null) return; //Transport owns the socket and is started on its own.
         try {
             socket = new DatagramSocket(port);
             socket.setBroadcast(true); //Broadcast for some packets.
@@ -64,6 +80,15 @@ public abstract class AbstractGameCommunicator {
     }
 
     void sendData(DatagramPacket pack) {
+        GameEvent.setMatchId(pack.getData(),matchId);
+        send(pack);
+    }
+
+    private void send(DatagramPacket pack) {
+        if(transport!=null) {
+            transport.send(pack);
+            return;
+        }
         GameEvent event = new GameEvent(pack.getData());
         if(event.getHeader()!=PackageHeader.PING && event.getHeader()!=PackageHeader.PONG)
             Log.d(TAG,"Sending package: "+event.getHeader().toString()+" of length "+pack.getLength());
@@ -74,8 +99,12 @@ public abstract class AbstractGameCommunicator {
     public abstract void receiveData(DatagramPacket pack);
 
     public int getPort() {
+        if(transport!=null) return transport.getPort();
         return socket.getPort();
     }
 
+    byte getMatchId() { return matchId; }
+    void setMatchId(byte matchId) { this.matchId=matchId; }
+
     public abstract Collection<Player> getPeers();
 }
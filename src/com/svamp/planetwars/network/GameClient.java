@@ -1,15 +1,20 @@
 package com.svamp.planetwars.network;
 
-import android.util.Log;
+import com.svamp.planetwars.sim.LockstepSimulation;
+import com.svamp.planetwars.util.Log;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
@@ -22,6 +27,19 @@ public class GameClient extends AbstractGameCommunicator {
     //List of all players except ours.
     private final Set<Player> peers = new HashSet<Player>();
     private final Set<DataPacketListener> listeners = Collections.synchronizedSet(new HashSet<DataPacketListener>());
+    //Our own run of the match, if the host runs it in lockstep. Null otherwise.
+    private volatile LockstepSimulation lockstep;
+    //Length of a host update, in seconds. Told in GAME_START.
+    private volatile float tickLength;
+    //Estimate of the host's map clock, for placing flying fleets.
+    private final HostClock hostClock = new HostClock();
+    //Turns received, but not yet run as an earlier one is missing. At most TURN_HISTORY, from the next turn on.
+    private final Map<Integer,List<GameEvent>> pendingTurns = new HashMap<Integer,List<GameEvent>>();
+    //Latest turn the host has sent, and when missing turns were last asked for.
+    private int latestTurn = -1;
+    private long lastTurnRequest = 0;
+    //Time to wait for turns asked for before asking again, in milliseconds.
+    private final static long TURN_REQUEST_INTERVAL_MS = 500;
 
     private static final String TAG = GameClient.class.getCanonicalName();
 
@@ -45,7 +63,7 @@ public class GameClient extends AbstractGameCommunicator {
     public void sendData(byte[] data) {
         try {
             sendData(new DatagramPacket(data,data.length,host));
-        } catch (SocketException e) {
+        } catch (Exception e) { //SocketException on android. Newer JVMs no longer declare it.
             Log.e(TAG, "Failed to send string \"" + Arrays.toString(data) + "\" to " + host.toString(), e);
         }
     }
@@ -68,7 +86,8 @@ public class GameClient extends AbstractGameCommunicator {
                 break;
 
             case REQUEST_PLAYER_DATA:
-                //Payload is a user object with valid player number attached.
+                //Payload is a user object with valid player number attached. Header holds the match we were put in.
+                setMatchId(event.getMatchId());
                 Player dummyPlayer = new Player(event.getPayload());
                 //Update our player object.
                 curPlayer.setPlayerNum(dummyPlayer.getPlayerNum());
@@ -87,13 +106,38 @@ public class GameClient extends AbstractGameCommunicator {
                 }
                 fireGameEvent(event);
                 break;
-            case FLEET_DISPATCHED: case STAR_STATE_CHANGED:
+            case FLEET_DISPATCHED:
+                //Departure is the host's time of sending.
+                hostClock.sync(ByteBuffer.wrap(event.getPayload()).getDouble(8));
+                fireGameEvent(event);
+                break;
+            case STAR_STATE_CHANGED:
                 fireGameEvent(event); //Listeners need this data.
                 break;
             case GAME_START:
+                if(lockstep!=null) break; //Started already. The host starts a match once.
+                ByteBuffer start = ByteBuffer.wrap(event.getPayload());
+                if(start.get()==1) { //Lockstep. Build the match like the host did.
+                    pendingTurns.clear();
+                    latestTurn = -1;
+                    long seed = start.getLong();
+                    int numStars = start.getInt();
+                    int tickIntervalMs = start.getInt();
+                    tickLength = tickIntervalMs/1000f;
+                    List<Player> players = new ArrayList<Player>(peers);
+                    players.add(curPlayer);
+                    lockstep = new LockstepSimulation(seed,numStars,tickIntervalMs,players);
+                    Log.d(TAG,"Running match in lockstep. Seed: "+seed);
+                } else {
+                    tickLength = start.getInt()/1000f;
+                }
                 fireGameEvent(event);
                 break;
+            case LOCKSTEP_TURN:
+                if(lockstep!=null) receiveTurns(ByteBuffer.wrap(event.getPayload()));
+                break;
             case PING:
+                if(lockstep==null) hostClock.sync(ByteBuffer.wrap(event.getPayload()).getDouble());
                 GameEvent pong = new GameEvent(PackageHeader.PONG,curPlayer);
                 sendData(pong.toByteArray());
                 break;
@@ -111,6 +155,19 @@ public class GameClient extends AbstractGameCommunicator {
         return curPlayer;
     }
 
+    public HostClock getHostClock() { return hostClock; }
+
+    /**
+     * @return Length of a host update, in seconds. Damage done per battle tick is proportional to it.
+     * Known once the match has started; 0 before.
+     */
+    public float getTickLength() { return tickLength; }
+
+    /**
+     * @return Our own run of the match, or null if the match has not started or is not run in lockstep.
+     */
+    public LockstepSimulation getLockstep() { return lockstep; }
+
     public void registerListener(DataPacketListener listener) {
         this.listeners.add(listener);
     }
@@ -118,6 +175,45 @@ public class GameClient extends AbstractGameCommunicator {
         this.listeners.remove(listener);
     }
 
+    /**
+     * Store the turns of a LOCKSTEP_TURN packet, and run all turns that are next in line.
+     * Listeners get the same events as from a host sending star state: dispatched fleets, and changed stars.
+     * If more turns are missing than a packet repeats, they are asked for again.
+     * @param buffer Payload of packet.
+     */
+    private void receiveTurns(ByteBuffer buffer) {
+        byte numTurns = buffer.get();
+        for(int i=0;i<numTurns;i++) {
+            List<GameEvent> commands = new ArrayList<GameEvent>();
+            int turn = LockstepSimulation.decodeTurn(buffer,commands);
+            latestTurn = Math.max(latestTurn,turn);
+            //Turns too far ahead are dropped, and asked for again when their time comes.
+            if(turn>=lockstep.getTurn() && turn<lockstep.getTurn()+LockstepSimulation.TURN_HISTORY)
+                pendingTurns.put(turn,commands);
+        }
+        List<GameEvent> commands;
+        while((commands=pendingTurns.remove(lockstep.getTurn()))!=null) {
+            for(GameEvent dispatch : lockstep.runTurn(commands))
+                fireGameEvent(dispatch);
+            hostClock.sync(lockstep.getTime());
+            if(lockstep.getStarMap().isDirty()) {
+                GameEvent stars = new GameEvent(PackageHeader.STAR_STATE_CHANGED,null);
+                stars.setPayload(lockstep.getStarMap().getSerialization());
+                fireGameEvent(stars);
+            }
+        }
+        //Later packets no longer hold the next turn. Ask the host for it.
+        long now = System.currentTimeMillis();
+        if(latestTurn-lockstep.getTurn()>=LockstepSimulation.TURNS_PER_PACKET
+                && now-lastTurnRequest>=TURN_REQUEST_INTERVAL_MS) {
+            lastTurnRequest = now;
+            Log.d(TAG,"Turns from "+lockstep.getTurn()+" were lost. Asking for them again.");
+            GameEvent request = new GameEvent(PackageHeader.REQUEST_TURNS,curPlayer);
+            request.setPayload(ByteBuffer.allocate(4).putInt(lockstep.getTurn()).array());
+            sendData(request.toByteArray());
+        }
+    }
+
     void fireGameEvent(GameEvent event) {
         for(DataPacketListener l : listeners) {
             l.receive(event);
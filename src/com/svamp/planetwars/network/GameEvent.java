@@ -1,10 +1,9 @@
 package com.svamp.planetwars.network;
 
-import android.util.Log;
+import com.svamp.planetwars.util.Log;
 
 import java.net.DatagramPacket;
 import java.net.SocketAddress;
-import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -13,8 +12,15 @@ import java.util.Arrays;
  * The contents of this class define the UDP package data structure.
  */
 public class GameEvent {
+    /** Match id of packets not belonging to a match yet. Sent by clients requesting to join any match. */
+    public final static byte NO_MATCH = 0;
+    //Position of the match id in the serialized event.
+    private final static int MATCH_ID_INDEX = 2;
+
     //User id responsible for change.
     private byte userId=-1;
+    //Match the event belongs to. Lets one server socket carry many games.
+    private byte matchId=NO_MATCH;
     //Type of event. the event type determines additional data.
     private final PackageHeader type;
 
@@ -31,6 +37,7 @@ public class GameEvent {
         //Set the fields always present:
         this.type = PackageHeader.get(buffer.get());
         this.userId=buffer.get();
+        this.matchId=buffer.get();
         //We have stripped out the header info. Put the rest in payload.
         payload = new byte[buffer.remaining()];
         buffer.get(payload);
@@ -48,10 +55,10 @@ public class GameEvent {
     }
 
     public byte[] toByteArray() {
-        ByteBuffer buffer = ByteBuffer.allocate(2+payload.length);
-        //Add tick number, userId and package type to buffer. These will always exist. 6 bytes, no spacers.
+        ByteBuffer buffer = ByteBuffer.allocate(3+payload.length);
+        //Add package type, userId and matchId to buffer. These will always exist. 3 bytes, no spacers.
         //Ordinal is reduced to a byte to save space.
-        buffer.put(type.valueOf()).put(userId);
+        buffer.put(type.valueOf()).put(userId).put(matchId);
         buffer.put(payload);
         return buffer.compact().array();
     }
@@ -65,7 +72,7 @@ public class GameEvent {
         byte[] data = toByteArray();
         try {
             return new DatagramPacket(data,data.length,addr);
-        } catch (SocketException e) {
+        } catch (Exception e) { //SocketException on android. Newer JVMs no longer declare it.
             Log.e(TAG, "Error occurred making package.", e);
             return null;
         }
@@ -73,15 +80,26 @@ public class GameEvent {
 
     public PackageHeader getHeader() { return type; }
     public byte getUserId() { return userId; }
+    public byte getMatchId() { return matchId; }
     public byte[] getPayload() { return payload; }
 
     public void setPayload(byte[] payload) { this.payload=payload; }
 
+    /**
+     * Set the match id of an already serialized event.
+     * @param data Serialized event.
+     * @param matchId Match id to write into it.
+     */
+    static void setMatchId(byte[] data, byte matchId) {
+        data[MATCH_ID_INDEX]=matchId;
+    }
+
     @Override
     public String toString() {
         return "[GameEvent: " +
                 " type: "+type.toString()+
                 ", userId: "+userId+
+                ", matchId: "+matchId+
                 ", payload: "+ Arrays.toString(payload)+"]";
     }
 }
@@ -1,53 +1,163 @@
 package com.svamp.planetwars.network;
 
-import android.util.Log;
 import com.svamp.planetwars.Fleet;
-import com.svamp.planetwars.ShipMap;
-import com.svamp.planetwars.StarMap;
+import com.svamp.planetwars.FleetTable;
+import com.svamp.planetwars.sim.LockstepSimulation;
+import com.svamp.planetwars.sim.RateScheduler;
+import com.svamp.planetwars.sim.SimShipMap;
+import com.svamp.planetwars.sim.SimStar;
+import com.svamp.planetwars.sim.SimStarMap;
+import com.svamp.planetwars.sim.TickScheduler;
+import com.svamp.planetwars.sim.TurnLog;
+import com.svamp.planetwars.util.Log;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.ServerSocket;
 import java.net.SocketAddress;
-import java.net.SocketException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  */
 public class GameHost extends AbstractGameCommunicator {
-    //Host retains list of players..
-    private final Map<SocketAddress,Player> peers = new HashMap<SocketAddress,Player>();
+    //Host retains list of players.. Joined by the socket thread, changed and left by the tick thread.
+    private final Map<SocketAddress,Player> peers = new ConcurrentHashMap<SocketAddress,Player>();
 
     private final int maxClients;
     private static final String TAG = GameHost.class.getCanonicalName();
 
-    private final StarMap starMap;
-    private final ShipMap shipMap;
+    private final SimStarMap starMap;
+    private final SimShipMap shipMap;
+    //Players in this game, for resolving fleet owners in client packets.
+    private final PlayerRegistry players = new PlayerRegistry();
 
     private final TickManager manager = new TickManager();
+    private final TickScheduler scheduler;
+    //Runs the subsystems of a started match, each at its own rate.
+    private final RateScheduler tasks;
+    private final int tickIntervalMs;
+
+    //All randomness of the match comes from this.
+    private final long seed = new Random().nextLong();
+    private final int numStars;
+    //Whether the game is to be run in lockstep when started.
+    private boolean lockstepMode = false;
+    //Simulation of a game started in lockstep mode. Null otherwise.
+    private volatile LockstepSimulation lockstep;
+    //Client events received since the last tick. Filled by the socket thread, run by the tick thread at the start of
+    //a tick, so only the tick thread ever changes players, stars and fleets. Lock-free.
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<Command>();
+    //Fleet and build commands taken from commands, not yet run by the simulation. Tick thread only.
+    private final List<GameEvent> simCommands = new ArrayList<GameEvent>();
+    //Statistics. Written by the tick thread only.
+    private volatile long commandsRun = 0;
+    private volatile int maxCommandBatch = 0;
+    //Latest turns sent, oldest first. The last TURNS_PER_PACKET are repeated in every turn packet. Older ones are
+    //sent again to clients that fell behind. Tick thread only.
+    private final LinkedList<byte[]> recentTurns = new LinkedList<byte[]>();
+    //Number of the oldest turn in recentTurns.
+    private int firstRecentTurn = 0;
+    //Writes the turns of a lockstep match, for playing it again. Null if not recording.
+    private volatile TurnLog.Recorder recorder;
+
+    private final static int DEFAULT_NUM_STARS = 50;
+    private final static int DEFAULT_TICK_INTERVAL_MS = 70;
+
+    /** Names of the tasks of a host. Their periods may be tuned through getTasks(). */
+    public final static String SIMULATION_TASK = "simulation";
+    public final static String BROADCAST_TASK = "broadcast";
+    public final static String PING_TASK = "ping";
+    //Ticks between pings.
+    private final static int PING_PERIOD = 30;
+    //Longest a broadcast or a ping is expected to take.
+    private final static long BROADCAST_BUDGET_NANOS = 5000000L;
+    private final static long PING_BUDGET_NANOS = 1000000L;
+    //Most turns sent again in one packet, in bytes. Clients read packets into 4096 byte buffers.
+    private final static int MAX_RESEND_BYTES = 4000;
 
     /**
      * @param portNum Port to initialize the host on.
      * @param maxClients Maximum number of allowed connections (clients)
      */
     public GameHost(int portNum,int maxClients) {
+        this(portNum,maxClients,DEFAULT_NUM_STARS);
+    }
+
+    /**
+     * @param portNum Port to initialize the host on.
+     * @param maxClients Maximum number of allowed connections (clients)
+     * @param numStars Number of stars in the generated galaxy.
+     */
+    public GameHost(int portNum,int maxClients,int numStars) {
+        this(portNum,maxClients,numStars,DEFAULT_TICK_INTERVAL_MS);
+    }
+
+    /**
+     * @param portNum Port to initialize the host on.
+     * @param maxClients Maximum number of allowed connections (clients)
+     * @param numStars Number of stars in the generated galaxy.
+     * @param tickIntervalMs Time between simulation ticks, in milliseconds.
+     */
+    public GameHost(int portNum,int maxClients,int numStars,int tickIntervalMs) {
         super(portNum);
-        this.starMap = StarMap.makeSpiralGalaxy(50);
-        this.shipMap = new ShipMap(this,starMap);
+        checkMaxClients(maxClients);
+        this.scheduler = new TickScheduler(manager,tickIntervalMs);
+        this.tickIntervalMs = tickIntervalMs;
+        this.tasks = makeTasks();
+        this.numStars = numStars;
+        this.starMap = SimStarMap.makeSpiralGalaxy(numStars,seed);
+        this.shipMap = new SimShipMap(this,starMap,players);
+        this.maxClients = maxClients;
+    }
+
+    /**
+     * Host of one match in a MatchServer. Shares the socket of the server, and is ticked by it.
+     * @param server Server owning the socket.
+     * @param matchId Id of this match. Written into every packet sent.
+     * @param maxClients Maximum number of allowed connections (clients)
+     * @param numStars Number of stars in the generated galaxy.
+     * @param tickIntervalMs Time between the server's ticks, in milliseconds.
+     */
+    GameHost(MatchServer server,byte matchId,int maxClients,int numStars,int tickIntervalMs) {
+        super(server);
+        checkMaxClients(maxClients);
+        setMatchId(matchId);
+        this.scheduler = null;
+        this.tickIntervalMs = tickIntervalMs;
+        this.tasks = makeTasks();
+        this.numStars = numStars;
+        this.starMap = SimStarMap.makeSpiralGalaxy(numStars,seed);
+        this.shipMap = new SimShipMap(this,starMap,players);
         this.maxClients = maxClients;
     }
 
+    //Player numbers are fleet slots. Slot 0 is the neutral player.
+    private static void checkMaxClients(int maxClients) {
+        if(maxClients>=FleetTable.MAX_PLAYERS)
+            throw new IllegalArgumentException("At most "+(FleetTable.MAX_PLAYERS-1)+" clients supported, got "+maxClients);
+    }
+
     public void start() throws IOException {
         super.start();
-        new Thread(manager).start();
+        if(scheduler!=null)
+            new Thread(scheduler).start();
     }
     public void stop() {
         super.stop();
-        manager.isRunning=false;
+        if(scheduler!=null)
+            scheduler.stop();
+        stopRecording();
     }
 
     @Override
@@ -57,7 +167,7 @@ public class GameHost extends AbstractGameCommunicator {
         SocketAddress peerAddress = pack.getSocketAddress();
 
         switch(event.getHeader()) {
-            case REQUEST_CONNECTION:
+            case REQUEST_CONNECTION: //Joined at once, so a MatchServer sends the next joiner elsewhere when full.
                 Log.d(TAG,"Got join request from: "+peerAddress.toString());
                 if(peers.containsKey(peerAddress)) {
                     Log.d(TAG,"Peer rejoined game: "+peerAddress.toString());
@@ -77,49 +187,13 @@ public class GameHost extends AbstractGameCommunicator {
 
                 break;
             case DISCONNECTED:
-                Log.d(TAG,"Peer left game: "+peers.get(peerAddress).toString());
-                peers.remove(peerAddress);
-                sendData(event.toByteArray()); //Send raw packet to all clients.
-                break;
             case SUBMITTED_PLAYER_DATA:
-                //Fetch Player object from peers, update its data with the payload from the event.
-                peers.get(peerAddress).updateFromSerialization(ByteBuffer.wrap(event.getPayload()));
-                //Retransmit all known player data to all players (cheap solution)
-                GameEvent pDataEvent = new GameEvent(PackageHeader.SUBMITTED_PLAYER_DATA,null);
-
-                for(Player p : peers.values()) {
-                    pDataEvent.setPayload(p.getSerialization());
-                    sendData(pDataEvent.toByteArray());
-                }
-                break;
-            case FLEET_DISPATCHED: //Fleet dispatched from client. DO NOT retransmit! Listener must validate choice first..
-                ByteBuffer buffer = ByteBuffer.wrap(event.getPayload());
-                //Map sends the relevant packages and updates state itself. If success, resend package.
-                if(shipMap.sendShips(buffer)) {
-                    sendData(event.toByteArray());
-                    //Send to host's map also..
-                    shipMap.receive(event);
-                }
-                break;
-            case NEW_BUILD_ORDERS: //Client requested that we should build a new type of ship. Update, don't retransmit.
-                ByteBuffer buf = ByteBuffer.wrap(event.getPayload());
-                starMap.getStarWithHash(buf.getInt()).setBuildType(Fleet.ShipType.getByOrdinal(buf.get()));
-                break;
             case REQUEST_GAME_START:
-                peers.get(peerAddress).gameStartRequested=true;
-                //Have all requested game start?
-                for(Player p : peers.values()) {
-                    if(!p.gameStartRequested) break;
-                }//Set spawn positions:
-                starMap.setSpawns(peers.values());
-
-                //Start game
-                GameEvent start = new GameEvent(PackageHeader.GAME_START,null);
-                manager.state=State.LOCKED; //Lock manager. Does not send roaming packages anymore.
-                sendData(start.toByteArray());
-                break;
-            case REQUEST_MAP: //Map requested, send to all.
-                starMap.makeAllDirty();
+            case FLEET_DISPATCHED: //Fleet dispatched from client. DO NOT retransmit! Listener must validate choice first..
+            case NEW_BUILD_ORDERS: //Client requested that we should build a new type of ship.
+            case REQUEST_MAP: //Map requested, send to all. In lockstep, clients make their own map dirty.
+            case REQUEST_TURNS: //Lockstep client fell behind.
+                commands.add(new Command(event,peerAddress)); //Run at the start of the next tick.
                 break;
             case PONG:
                 break;
@@ -128,6 +202,85 @@ public class GameHost extends AbstractGameCommunicator {
         }
     }
 
+    /**
+     * @return The scheduler running the simulation. Holds overrun and tick lateness statistics.
+     * Null for matches of a MatchServer, which are ticked by the server.
+     */
+    public TickScheduler getTickScheduler() { return scheduler; }
+    /**
+     * @return The subsystems of the match. Holds their periods, and the time spent in each.
+     */
+    public RateScheduler getTasks() { return tasks; }
+    /** @return Number of client commands run so far. */
+    public long getCommandsRun() { return commandsRun; }
+    /** @return Most client commands run at the start of one tick. */
+    public int getMaxCommandBatch() { return maxCommandBatch; }
+    public SimStarMap getStarMap() { return starMap; }
+
+    /**
+     * Run one tick of this match. Used by MatchServer; standalone hosts tick themselves.
+     */
+    void tick(long tick, float dt) {
+        manager.tick(tick,dt);
+    }
+
+    /**
+     * Run the game in deterministic lockstep: clients simulate the match themselves from the match seed,
+     * and only player commands are sent to them, once per tick. Must be set before the game starts.
+     * @param lockstepMode True to run in lockstep.
+     */
+    public void setLockstep(boolean lockstepMode) {
+        this.lockstepMode=lockstepMode;
+    }
+
+    /**
+     * Record the match in a TurnLog, if it is run in lockstep. Must be set before the first turn.
+     * @param recorder Recorder to write to. Closed when the host stops, or by stopRecording().
+     */
+    public void setRecorder(TurnLog.Recorder recorder) {
+        this.recorder=recorder;
+    }
+
+    //Write a turn to the turn log. The match is described before its first turn, as clients are told in GAME_START.
+    private void record(int turn, byte[] encoded) {
+        TurnLog.Recorder recorder = this.recorder;
+        try {
+            if(turn==0) recorder.start(seed,numStars,tickIntervalMs,peers.values());
+            recorder.turn(encoded,lockstep);
+        } catch (IOException e) { //A full disk must not stop the match.
+            Log.e(TAG,"Could not write turn log. Recording stopped.",e);
+            stopRecording();
+        }
+    }
+
+    /**
+     * Stop recording the match, and close the recorder.
+     */
+    public void stopRecording() {
+        TurnLog.Recorder recorder = this.recorder;
+        this.recorder=null;
+        if(recorder==null) return;
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.e(TAG,"Could not close turn log.",e);
+        }
+    }
+
+    /**
+     * @return True if this match has not started, and has room for more clients.
+     */
+    public boolean isOpen() {
+        return manager.state==State.ROAMING && peers.size()<maxClients;
+    }
+
+    /**
+     * @return True if this match has started, and every client has left.
+     */
+    public boolean isOver() {
+        return manager.state==State.LOCKED && peers.isEmpty();
+    }
+
     @Override
     public Collection<Player> getPeers() {
         return peers.values();
@@ -138,7 +291,7 @@ public class GameHost extends AbstractGameCommunicator {
         for(SocketAddress player : peers.keySet()) {
             try {
                 sendData(new DatagramPacket(data,data.length,player));
-            } catch (SocketException e) {
+            } catch (Exception e) { //SocketException on android. Newer JVMs no longer declare it.
                 Log.e(TAG,"Failed to send string \""+ Arrays.toString(data)+"\" to "+player.toString(),e);
             }
         }
@@ -176,49 +329,256 @@ public class GameHost extends AbstractGameCommunicator {
         return availableUserId;
     }
 
-    private class TickManager implements Runnable {
-        private boolean isRunning=true;
-        private int tick=0;
-        private State state = State.ROAMING;
+    /**
+     * Per tick work of the host. Timing is left to the TickScheduler.
+     */
+    private class TickManager implements TickScheduler.Tickable {
+        private volatile State state = State.ROAMING;
 
-        private final static int TICK_INTERVAL_MS = 70;
-        private long dtAcc = System.currentTimeMillis();
         @Override
-        public void run() {
-            while(isRunning) {
-                //dtAcc += TICK_INTERVAL_MS;
-                //if(Math.random()<0.1f)Log.d(TAG,"Internal time is off by "+(System.currentTimeMillis()-dtAcc)+"ms.");
-                //dtAcc = System.currentTimeMillis();
-                long startTime = System.currentTimeMillis();
-                if(state==State.ROAMING) {
-                    //TODO: broadcast host address.
-                }
+        public void tick(long tick, float dt) {
+            if(state==State.ROAMING) {
+                //TODO: broadcast host address.
+            }
+            takeCommands();
 
+            if(state==State.LOCKED)
+                tasks.tick(tick,dt);
+        }
+    }
 
-                if(state==State.LOCKED) {
+    /**
+     * Subsystems of the host, each at its own rate. The simulation runs every tick; battles and builds run inside
+     * it, on the battle clock. Pings and star state broadcasts are put off when a tick runs late, by at most a period.
+     * A broadcast put off loses no star: stars stay marked dirty until getSerialization() sends them, so the next
+     * broadcast sends every star marked since the last one, in its current state.
+     */
+    private RateScheduler makeTasks() {
+        long tickNanos = tickIntervalMs*1000000L;
+        RateScheduler tasks = new RateScheduler(tickNanos);
+        tasks.add(SIMULATION_TASK,1,tickNanos/2,false,new TickScheduler.Tickable() {
+            @Override
+            public void tick(long tick, float dt) {
+                if(lockstep!=null) { //Turns have a fixed length. A longer period slows the match down.
+                    runTurn();
+                    return;
+                }
                 /*Start of new tick:*/
-                    starMap.update(TICK_INTERVAL_MS / 1000f);
-                    shipMap.update(TICK_INTERVAL_MS / 1000f);
-                    if(tick % 30 == 0) { //Periodical ping.
-                        GameEvent event = new GameEvent(PackageHeader.PING,null);
-                        sendData(event.toByteArray());
-                    }
-                    if(starMap.isDirty()) { //Time for a starMap update.
-                        GameEvent event = new GameEvent(PackageHeader.STAR_STATE_CHANGED,null);
-                        event.setPayload(starMap.getSerialization());
-                        sendData(event.toByteArray());
+                runCommands();
+                starMap.update(dt);
+                shipMap.update(dt);
+            }
+        });
+        tasks.add(BROADCAST_TASK,1,BROADCAST_BUDGET_NANOS,true,new TickScheduler.Tickable() {
+            @Override
+            public void tick(long tick, float dt) {
+                //In lockstep, clients compute star state themselves.
+                if(lockstep==null && starMap.isDirty()) { //Time for a starMap update.
+                    GameEvent event = new GameEvent(PackageHeader.STAR_STATE_CHANGED,null);
+                    event.setPayload(starMap.getSerialization());
+                    sendData(event.toByteArray());
+                }
+            }
+        });
+        tasks.add(PING_TASK,PING_PERIOD,PING_BUDGET_NANOS,true,new TickScheduler.Tickable() {
+            @Override
+            public void tick(long tick, float dt) {
+                //Periodical ping. Carries the map time for clients to sync their clock with.
+                GameEvent event = new GameEvent(PackageHeader.PING,null);
+                event.setPayload(ByteBuffer.allocate(8).putDouble(shipMap.getTime()).array());
+                sendData(event.toByteArray());
+            }
+        });
+        return tasks;
+    }
+
+    /**
+     * Run the client events received since the last tick, in order of arrival. Fleet and build commands are left to
+     * the simulation, which may not run every tick. Tick thread only.
+     */
+    private void takeCommands() {
+        Command command;
+        while((command=commands.poll())!=null) {
+            switch(command.event.getHeader()) {
+                case FLEET_DISPATCHED: case NEW_BUILD_ORDERS: case REQUEST_MAP:
+                    simCommands.add(command.event); //In lockstep, sent with the next turn too.
+                    break;
+                default:
+                    try {
+                        runPeerCommand(command.event,command.from);
+                    } catch (RuntimeException e) { //Broken packet. It must not stop the match.
+                        Log.e(TAG,"Dropped "+command.event.getHeader()+" from "+command.from,e);
                     }
+            }
+        }
+    }
+
+    private void runPeerCommand(GameEvent event, SocketAddress peerAddress) {
+        Player peer = peers.get(peerAddress);
+        if(peer==null) return; //Left, or never joined.
+        switch(event.getHeader()) {
+            case DISCONNECTED:
+                Log.d(TAG,"Peer left game: "+peer.toString());
+                peers.remove(peerAddress);
+                players.remove(peer);
+                sendData(event.toByteArray()); //Send raw packet to all clients.
+                break;
+            case SUBMITTED_PLAYER_DATA:
+                //Update the data of the Player object with the payload from the event.
+                peer.updateFromSerialization(ByteBuffer.wrap(event.getPayload()));
+                players.add(peer); //Replaces any earlier data under the same player number.
+                //Retransmit all known player data to all players (cheap solution)
+                GameEvent pDataEvent = new GameEvent(PackageHeader.SUBMITTED_PLAYER_DATA,null);
+
+                for(Player p : peers.values()) {
+                    pDataEvent.setPayload(p.getSerialization());
+                    sendData(pDataEvent.toByteArray());
                 }
-                long dt = System.currentTimeMillis() -startTime;
-                try {
-                    if(dt < TICK_INTERVAL_MS) {
-                    //Enforce tick intervals regardless of other processing times.
-                    Thread.sleep(TICK_INTERVAL_MS-dt);
+                break;
+            case REQUEST_GAME_START:
+                peer.gameStartRequested=true;
+                if(manager.state==State.LOCKED) break; //Started already. Starting again would throw the match away.
+                //Have all requested game start?
+                boolean allRequested = true;
+                for(Player p : peers.values()) {
+                    if(!p.gameStartRequested) {
+                        allRequested = false;
+                        break;
                     }
-                } catch (InterruptedException ignored) {}
-                tick++;
+                }
+                if(allRequested) startGame();
+                break;
+            case REQUEST_TURNS:
+                sendTurns(ByteBuffer.wrap(event.getPayload()).getInt(),peerAddress);
+                break;
+        }
+    }
+
+    /**
+     * Send a client that fell behind the turns from the given one on, as many as fit in a packet.
+     * It asks again for the rest.
+     */
+    private void sendTurns(int from, SocketAddress peerAddress) {
+        if(lockstep==null || from>=firstRecentTurn+recentTurns.size()) return; //Nothing to send yet.
+        if(from<firstRecentTurn) {
+            Log.e(TAG,"Turn "+from+" asked for by "+peerAddress+" is no longer kept. The client can not catch up.");
+            return;
+        }
+        List<byte[]> turns = new ArrayList<byte[]>();
+        int size = 1;
+        for(Iterator<byte[]> it = recentTurns.listIterator(from-firstRecentTurn); it.hasNext() && turns.size()<Byte.MAX_VALUE;) {
+            byte[] turn = it.next();
+            if(size+turn.length>MAX_RESEND_BYTES) break;
+            turns.add(turn);
+            size+=turn.length;
+        }
+        GameEvent event = new GameEvent(PackageHeader.LOCKSTEP_TURN,null);
+        event.setPayload(LockstepSimulation.makeTurnPacket(turns));
+        sendData(event.makePacket(peerAddress));
+    }
+
+    /**
+     * Place the players, and tell all the game has started. Tick thread only, once.
+     */
+    private void startGame() {
+        //Set spawn positions:
+        starMap.setSpawns(peers.values());
+
+        //Start game. Clients are told the length of an update, for predicting battles.
+        GameEvent start = new GameEvent(PackageHeader.GAME_START,null);
+        if(lockstepMode) {
+            //Clients run the match themselves. Tell them how to build it.
+            shipMap.setCommunicator(null);
+            lockstep = new LockstepSimulation(starMap,shipMap,tickIntervalMs);
+            recentTurns.clear();
+            firstRecentTurn = 0;
+            start.setPayload(ByteBuffer.allocate(17).put((byte) 1)
+                    .putLong(seed).putInt(numStars).putInt(tickIntervalMs).array());
+        } else {
+            start.setPayload(ByteBuffer.allocate(5).put((byte) 0).putInt(tickIntervalMs).array());
+        }
+        manager.state=State.LOCKED; //Lock manager. Does not send roaming packages anymore.
+        sendData(start.toByteArray());
+    }
+
+    /**
+     * Run the fleet and build commands taken since the simulation last ran, in order of arrival. Tick thread only.
+     */
+    private void runCommands() {
+        for(GameEvent command : simCommands) {
+            try {
+                runCommand(command);
+            } catch (RuntimeException e) { //Broken packet. It must not stop the match.
+                Log.e(TAG,"Dropped "+command.getHeader()+" command from player "+command.getUserId(),e);
             }
         }
+        countBatch(simCommands.size());
+        simCommands.clear();
+    }
+
+    private void runCommand(GameEvent command) {
+        ByteBuffer buffer = ByteBuffer.wrap(command.getPayload());
+        switch(command.getHeader()) {
+            case FLEET_DISPATCHED:
+                //Map sends the relevant packages, updates state and launches the fleet itself. If success, tell all of the flight.
+                byte[] dispatch = shipMap.sendShips(buffer);
+                if(dispatch!=null) {
+                    command.setPayload(dispatch);
+                    sendData(command.toByteArray());
+                }
+                break;
+            case NEW_BUILD_ORDERS: //Update, don't retransmit.
+                SimStar buildStar = starMap.getStar(buffer.getInt());
+                byte type = buffer.get();
+                if(buildStar!=null && type>=0 && type<Fleet.ShipType.values().length)
+                    buildStar.setBuildType(Fleet.ShipType.getByOrdinal(type));
+                break;
+            case REQUEST_MAP:
+                starMap.makeAllDirty();
+                break;
+        }
+    }
+
+    private void countBatch(int batch) {
+        commandsRun+=batch;
+        if(batch>maxCommandBatch) maxCommandBatch=batch;
+    }
+
+    /**
+     * Run a lockstep turn with the commands received since the last one, and send the turn to all.
+     */
+    private void runTurn() {
+        List<GameEvent> turnCommands = new ArrayList<GameEvent>(simCommands);
+        simCommands.clear();
+        countBatch(turnCommands.size());
+        int turn = lockstep.getTurn();
+        lockstep.runTurn(turnCommands);
+        starMap.clearDirty(); //Clients compute star state themselves.
+
+        byte[] encoded = LockstepSimulation.encodeTurn(turn,turnCommands);
+        if(recorder!=null) record(turn,encoded);
+        recentTurns.addLast(encoded);
+        if(recentTurns.size()>LockstepSimulation.TURN_HISTORY) {
+            recentTurns.removeFirst();
+            firstRecentTurn++;
+        }
+        GameEvent event = new GameEvent(PackageHeader.LOCKSTEP_TURN,null);
+        event.setPayload(LockstepSimulation.makeTurnPacket(
+                recentTurns.subList(Math.max(0,recentTurns.size()-LockstepSimulation.TURNS_PER_PACKET),recentTurns.size())));
+        sendData(event.toByteArray());
+    }
+
+    /**
+     * Client event, with the address it came from.
+     */
+    private static final class Command {
+        private final GameEvent event;
+        private final SocketAddress from;
+
+        private Command(GameEvent event, SocketAddress from) {
+            this.event=event;
+            this.from=from;
+        }
     }
 
     public static enum State { ROAMING,LOCKED }
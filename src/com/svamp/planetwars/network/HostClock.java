@@ -0,0 +1,30 @@
+package com.svamp.planetwars.network;
+
+/**
+ * The client's estimate of the host's map clock (seconds of simulation, as counted by the host's SimShipMap).
+ * Synced from packets stamped with host time, and read by the renderer to place flying fleets.
+ * Packets are a little late, so the estimate runs slightly behind; equally so for every fleet.
+ */
+public class HostClock {
+    //Host time minus local time. Seconds.
+    private volatile double offset = 0;
+
+    /**
+     * The host's clock showed the given time when it sent a packet we just received.
+     * @param hostTime Host time in packet. Seconds.
+     */
+    public void sync(double hostTime) {
+        offset = hostTime-localTime();
+    }
+
+    /**
+     * @return Current host time. Seconds.
+     */
+    public double now() {
+        return localTime()+offset;
+    }
+
+    private static double localTime() {
+        return System.nanoTime()/1e9;
+    }
+}
@@ -0,0 +1,237 @@
+package com.svamp.planetwars.network;
+
+import com.svamp.planetwars.sim.ParallelStarUpdater;
+import com.svamp.planetwars.sim.RateScheduler;
+import com.svamp.planetwars.sim.TickScheduler;
+import com.svamp.planetwars.sim.TurnLog;
+import com.svamp.planetwars.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs many independent matches on one socket and one tick thread.
+ * Packets are routed to a match by the match id in their GameEvent header. Clients join with GameEvent.NO_MATCH,
+ * are put in a match still open for players, and learn its id from the host's first reply.
+ * Every match is ticked on each server tick, on a shared worker pool if one is given.
+ */
+public class MatchServer extends AbstractGameCommunicator implements TickScheduler.Tickable {
+    private final Map<Byte,GameHost> matches = new ConcurrentHashMap<Byte,GameHost>();
+    private final int maxMatches;
+    private final int maxClients;
+    private final int numStars;
+    private final int tickIntervalMs;
+    //Whether new matches run in lockstep.
+    private boolean lockstep = false;
+    //Where new lockstep matches write their turn logs. Null to not record.
+    private File recordDirectory;
+    //Task periods set for new matches, by task name.
+    private final Map<String,Integer> taskPeriods = new HashMap<String,Integer>();
+
+    private final TickScheduler scheduler;
+    //Runs the ticks of different matches in parallel. Null to tick them on the tick thread.
+    private final ExecutorService pool;
+    //Set as star updater of every new match, if not null.
+    private ParallelStarUpdater parallelUpdater;
+
+    private static final String TAG = MatchServer.class.getCanonicalName();
+
+    /**
+     * @param portNum Port to initialize the server on.
+     * @param maxMatches Maximum number of matches run at once. At most 127, as match ids are bytes.
+     * @param maxClients Maximum number of clients per match.
+     * @param numStars Number of stars in the galaxy of each match.
+     * @param tickIntervalMs Time between simulation ticks, in milliseconds.
+     * @param pool Pool running the ticks of matches, or null to run them one after the other.
+     */
+    public MatchServer(int portNum,int maxMatches,int maxClients,int numStars,int tickIntervalMs,ExecutorService pool) {
+        super(portNum);
+        if(maxMatches<1 || maxMatches>Byte.MAX_VALUE)
+            throw new IllegalArgumentException("Between 1 and "+Byte.MAX_VALUE+" matches supported, got "+maxMatches);
+        this.maxMatches=maxMatches;
+        this.maxClients=maxClients;
+        this.numStars=numStars;
+        this.tickIntervalMs=tickIntervalMs;
+        this.pool=pool;
+        this.scheduler = new TickScheduler(this,tickIntervalMs);
+    }
+
+    public void start() throws IOException {
+        super.start();
+        new Thread(scheduler).start();
+    }
+
+    public void stop() {
+        scheduler.stop();
+        super.stop();
+    }
+
+    /**
+     * Update stars of every match created from now on in parallel.
+     * @param updater Updater to use, or null to update stars on the tick thread.
+     */
+    public void setParallelUpdater(ParallelStarUpdater updater) {
+        this.parallelUpdater=updater;
+    }
+
+    /**
+     * Run matches created from now on in lockstep. @see GameHost.setLockstep
+     * @param lockstep True to run in lockstep.
+     */
+    public void setLockstep(boolean lockstep) {
+        this.lockstep=lockstep;
+    }
+
+    /**
+     * Record lockstep matches created from now on, each in a TurnLog file of its own.
+     * @param directory Directory to write the logs to, or null to stop recording.
+     */
+    public void setRecordDirectory(File directory) {
+        this.recordDirectory=directory;
+    }
+
+    /**
+     * Run a task of matches created from now on at another rate. @see GameHost.getTasks
+     * @param task Name of task, one of the GameHost task names.
+     * @param period Ticks between runs.
+     */
+    public void setTaskPeriod(String task, int period) {
+        if(period<1) throw new IllegalArgumentException("Period of "+task+" must be at least 1 tick, was "+period);
+        taskPeriods.put(task,period);
+    }
+
+    /**
+     * @return Time spent per task, summed over the matches running.
+     */
+    public String getTaskReport() {
+        List<RateScheduler> tasks = new ArrayList<RateScheduler>();
+        for(GameHost match : matches.values())
+            tasks.add(match.getTasks());
+        return RateScheduler.report(tasks);
+    }
+
+    @Override
+    public void receiveData(DatagramPacket pack) {
+        GameEvent event = new GameEvent(pack.getData());
+        GameHost match = matches.get(event.getMatchId());
+        if(match==null && event.getHeader()==PackageHeader.REQUEST_CONNECTION)
+            match = getOpenMatch();
+
+        if(match!=null) {
+            match.receiveData(pack);
+        } else if(event.getHeader()==PackageHeader.REQUEST_CONNECTION) {
+            GameEvent error = new GameEvent(PackageHeader.CONNECTION_REFUSED_SERVER_FULL,null);
+            sendData(error.makePacket(pack.getSocketAddress()));
+        } else {
+            Log.d(TAG,"Dropped package for unknown match: "+event.getHeader()+" match: "+event.getMatchId());
+        }
+    }
+
+    /**
+     * Find a match that has not started and has room for another client. Makes a new one if there is none.
+     * @return Open match, or null if all matches are full and no more may be made.
+     */
+    private GameHost getOpenMatch() {
+        for(GameHost match : matches.values()) {
+            if(match.isOpen()) return match;
+        }
+        for(byte id=1;id<=maxMatches;id++) {
+            if(!matches.containsKey(id)) {
+                GameHost match = new GameHost(this,id,maxClients,numStars,tickIntervalMs);
+                match.getStarMap().setParallelUpdater(parallelUpdater);
+                match.setLockstep(lockstep);
+                for(Map.Entry<String,Integer> period : taskPeriods.entrySet()) {
+                    RateScheduler.Task task = match.getTasks().getTask(period.getKey());
+                    if(task!=null) task.setPeriod(period.getValue());
+                    else Log.e(TAG,"No task named "+period.getKey()+". Period not set.");
+                }
+                if(lockstep && recordDirectory!=null) {
+                    File log = new File(recordDirectory,"match"+id+"-"+System.currentTimeMillis()+".turns");
+                    try {
+                        match.setRecorder(new TurnLog.Recorder(new FileOutputStream(log)));
+                    } catch (IOException e) {
+                        Log.e(TAG,"Could not open "+log+". Match "+id+" is not recorded.",e);
+                    }
+                }
+                matches.put(id,match);
+                Log.d(TAG,"Opened match "+id+". "+matches.size()+" matches running.");
+                return match;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void tick(final long tick, final float dt) {
+        //Finished matches free their id for new ones.
+        for(Map.Entry<Byte,GameHost> entry : matches.entrySet()) {
+            if(entry.getValue().isOver()) {
+                entry.getValue().stopRecording();
+                matches.remove(entry.getKey());
+                Log.d(TAG,"Match "+entry.getKey()+" is over. "+matches.size()+" matches running.");
+            }
+        }
+        if(pool==null) {
+            for(GameHost match : matches.values())
+                match.tick(tick,dt);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(matches.size());
+        for(final GameHost match : matches.values()) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    match.tick(tick,dt);
+                    return null;
+                }
+            });
+        }
+        try {
+            for(Future<Void> result : pool.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG,"Match tick failed",e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The scheduler ticking all matches. Holds overrun and tick lateness statistics.
+     */
+    public TickScheduler getTickScheduler() { return scheduler; }
+
+    public int numMatches() { return matches.size(); }
+
+    /**
+     * Broadcast to the clients of every match.
+     */
+    @Override
+    public void sendData(byte[] data) {
+        for(GameHost match : matches.values())
+            match.sendData(data);
+    }
+
+    @Override
+    public Collection<Player> getPeers() {
+        List<Player> peers = new ArrayList<Player>();
+        for(GameHost match : matches.values())
+            peers.addAll(match.getPeers());
+        return peers;
+    }
+}
@@ -20,7 +20,9 @@ public enum PackageHeader {
     NEW_BUILD_ORDERS, //Sent from a client to order what to build at a star.
     STAR_STATE_CHANGED, //Sent by host.
     PING, //Host poll
-    PONG; //Client answer
+    PONG, //Client answer
+    LOCKSTEP_TURN, //Sent by host in lockstep mode. Player commands of the latest turns, instead of star state.
+    REQUEST_TURNS; //Client missing lockstep turns asks for them again. Number of the first one missing in payload.
 
     private static final PackageHeader[] cache = PackageHeader.values();
 
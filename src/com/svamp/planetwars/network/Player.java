@@ -15,17 +15,20 @@ public class Player implements ByteSerializeable,Comparator<Player> {
     //Helper field used by gameHost. not for internal use.
     public boolean gameStartRequested=false;
 
-    private static Player neutral;
+    //Created eagerly. Ownership checks compare against this instance from many threads.
+    private static final Player neutral = makeNeutral();
 
     public static Player getNeutral() {
-        if(neutral==null) {
-            neutral=new Player((byte) 0);
-            neutral.userName="Neutral";
-            neutral.uniqueID=1234567;
-        }
         return neutral;
     }
 
+    private static Player makeNeutral() {
+        Player p = new Player((byte) 0);
+        p.userName="Neutral";
+        p.uniqueID=1234567;
+        return p;
+    }
+
     public Player(byte playerNum) {
         this.playerNum=playerNum;
     }
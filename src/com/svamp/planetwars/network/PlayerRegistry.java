@@ -0,0 +1,67 @@
+package com.svamp.planetwars.network;
+
+import com.svamp.planetwars.FleetTable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Lookup of players by their player number, the dense ID fleet owners are sent as. Used to resolve fleet owners when decoding packets.
+ * Player numbers are fleet slots, from 0 (the neutral player) to FleetTable.MAX_PLAYERS-1, so lookup is an array index.
+ * The client keeps its players in the default registry. A host keeps its own.
+ */
+public class PlayerRegistry {
+    private final Player[] players = new Player[FleetTable.MAX_PLAYERS];
+
+    //Registry used by the client in this process.
+    private static final PlayerRegistry defaultRegistry = new PlayerRegistry();
+
+    public PlayerRegistry() {
+        add(Player.getNeutral());
+    }
+
+    public static PlayerRegistry getDefault() { return defaultRegistry; }
+
+    /**
+     * @param player Player to add. Replaces any player with the same player number.
+     * @throws IllegalArgumentException If the player number is not a fleet slot.
+     */
+    public void add(Player player) {
+        players[slotOf(player.getPlayerNum())] = player;
+    }
+
+    public void remove(Player player) {
+        int num = player.getPlayerNum();
+        if(num>=0 && num<players.length && player.equals(players[num]))
+            players[num] = null;
+    }
+
+    /**
+     * @param playerNum Player number of player to find.
+     * @return Player with the given number.
+     * @throws IllegalArgumentException If no player has the given number.
+     */
+    public Player get(int playerNum) {
+        Player player = playerNum>=0 && playerNum<players.length ? players[playerNum] : null;
+        if(player==null) throw new IllegalArgumentException("Error! player number "+playerNum+" not found in the following collection:"+toString());
+        return player;
+    }
+
+    public Collection<Player> getPlayers() {
+        List<Player> list = new ArrayList<Player>();
+        for(Player player : players)
+            if(player!=null) list.add(player);
+        return list;
+    }
+
+    private static int slotOf(int playerNum) {
+        if(playerNum<0 || playerNum>=FleetTable.MAX_PLAYERS)
+            throw new IllegalArgumentException("Player number "+playerNum+" is not a fleet slot. Slots are 0-"+(FleetTable.MAX_PLAYERS-1));
+        return playerNum;
+    }
+
+    public String toString() {
+        return getPlayers().toString();
+    }
+}
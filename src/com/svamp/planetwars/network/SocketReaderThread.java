@@ -1,6 +1,6 @@
 package com.svamp.planetwars.network;
 
-import android.util.Log;
+import com.svamp.planetwars.util.Log;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
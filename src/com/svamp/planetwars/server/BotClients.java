@@ -0,0 +1,58 @@
+package com.svamp.planetwars.server;
+
+import com.svamp.planetwars.bot.MctsBot;
+import com.svamp.planetwars.network.GameClient;
+import com.svamp.planetwars.network.GameEvent;
+import com.svamp.planetwars.network.PackageHeader;
+import com.svamp.planetwars.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless entry point connecting computer players to a host, to fill matches or to load a server.
+ * Every bot is a GameClient of its own, asking to join and to start right away. The host must run in lockstep.
+ * All bots share one search pool with a thread per core.
+ *
+ * Usage: BotClients host [port] [numBots] [moveBudgetMs] [firstLocalPort]
+ */
+public class BotClients {
+    private final static int DEFAULT_PORT = 37707;
+    private final static int DEFAULT_NUM_BOTS = 1;
+    private final static long DEFAULT_MOVE_BUDGET_MS = 500;
+    private final static int DEFAULT_FIRST_LOCAL_PORT = 37800;
+
+    private static final String TAG = BotClients.class.getCanonicalName();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String host = args.length>0 ? args[0] : "127.0.0.1";
+        int port = args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        int numBots = args.length>2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_BOTS;
+        long moveBudgetMs = args.length>3 ? Long.parseLong(args[3]) : DEFAULT_MOVE_BUDGET_MS;
+        int localPort = args.length>4 ? Integer.parseInt(args[4]) : DEFAULT_FIRST_LOCAL_PORT;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(cores);
+        InetSocketAddress address = new InetSocketAddress(host,port);
+        GameClient[] clients = new GameClient[numBots];
+        Thread[] threads = new Thread[numBots];
+        for(int i=0;i<numBots;i++) {
+            clients[i] = new GameClient(localPort+i,address);
+            clients[i].start();
+            clients[i].sendData(new GameEvent(PackageHeader.REQUEST_CONNECTION,clients[i].getPlayer()).toByteArray());
+            //Bots share the pool, so bots searching at the same time split the cores.
+            threads[i] = new Thread(new MctsBot(clients[i],pool,cores,moveBudgetMs));
+            threads[i].start();
+        }
+        //Give the host time to hand out player numbers before asking to start.
+        Thread.sleep(1000);
+        Log.d(TAG,numBots+" bots connected to "+address+". Requesting game start.");
+        for(GameClient client : clients)
+            client.sendData(new GameEvent(PackageHeader.REQUEST_GAME_START,client.getPlayer()).toByteArray());
+        for(Thread thread : threads)
+            thread.join();
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,71 @@
+package com.svamp.planetwars.server;
+
+import com.svamp.planetwars.network.MatchServer;
+import com.svamp.planetwars.sim.ParallelStarUpdater;
+import com.svamp.planetwars.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Headless entry point running matches on a plain JVM.
+ * Needs no android or GL classes. See the README for the files of the headless build; of the math package,
+ * only Vector is used.
+ * All matches share one socket, one tick thread and one worker pool.
+ *
+ * Usage: DedicatedServer [port] [maxClients] [numStars] [tickIntervalMs] [maxMatches] [lockstep] [recordDirectory]
+ * Lockstep matches are recorded in recordDirectory, if given, and may be played again with FastForward.
+ * Task periods of the matches, in ticks, are set with system properties: -Dtask.ping=60 runs pings every 60 ticks.
+ * See the task names of GameHost.
+ */
+public class DedicatedServer {
+    private final static int DEFAULT_PORT = 37707;
+    private final static int DEFAULT_MAX_CLIENTS = 4;
+    private final static int DEFAULT_NUM_STARS = 50;
+    private final static int DEFAULT_TICK_INTERVAL_MS = 70;
+    private final static int DEFAULT_MAX_MATCHES = 32;
+    //How often tick statistics are logged.
+    private final static long STATS_INTERVAL_MS = 30000;
+    //Prefix of system properties setting task periods.
+    private final static String TASK_PROPERTY = "task.";
+
+    private static final String TAG = DedicatedServer.class.getCanonicalName();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int maxClients = args.length>1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_CLIENTS;
+        int numStars = args.length>2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_STARS;
+        int tickIntervalMs = args.length>3 ? Integer.parseInt(args[3]) : DEFAULT_TICK_INTERVAL_MS;
+        int maxMatches = args.length>4 ? Integer.parseInt(args[4]) : DEFAULT_MAX_MATCHES;
+        boolean lockstep = args.length>5 && Boolean.parseBoolean(args[5]);
+        File recordDirectory = args.length>6 ? new File(args[6]) : null;
+
+        //Spread matches and their star updates over all cores.
+        ForkJoinPool pool = new ForkJoinPool();
+        final MatchServer server = new MatchServer(port,maxMatches,maxClients,numStars,tickIntervalMs,pool);
+        server.setParallelUpdater(new ParallelStarUpdater(pool));
+        server.setLockstep(lockstep);
+        server.setRecordDirectory(recordDirectory);
+        for(String name : System.getProperties().stringPropertyNames()) {
+            if(name.startsWith(TASK_PROPERTY))
+                server.setTaskPeriod(name.substring(TASK_PROPERTY.length()),Integer.parseInt(System.getProperty(name)));
+        }
+        server.start();
+        Log.d(TAG,"Dedicated server up on port "+port+". Up to "+maxMatches+" matches of "+maxClients+" clients, "+numStars+" stars.");
+
+        //Shut socket and tick threads down cleanly on exit.
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        //Report whether the host keeps up with its tick rate.
+        while(true) {
+            Thread.sleep(STATS_INTERVAL_MS);
+            Log.d(TAG,server.numMatches()+" matches. "+server.getTickScheduler().toString());
+            Log.d(TAG,"Time per task:\n"+server.getTaskReport());
+        }
+    }
+}
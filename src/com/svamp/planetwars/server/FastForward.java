@@ -0,0 +1,81 @@
+package com.svamp.planetwars.server;
+
+import com.svamp.planetwars.network.GameEvent;
+import com.svamp.planetwars.sim.LockstepSimulation;
+import com.svamp.planetwars.sim.TurnLog;
+import com.svamp.planetwars.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plays recorded matches again as fast as the CPU allows, with no network, no rendering and no waiting on the clock.
+ * Turn logs are written by lockstep hosts (DedicatedServer with a record directory) while the match is played
+ * in real time. Every turn's commands are run like the host ran them, and the state is checked against the
+ * checksums the host recorded, so a replay either ends in the very state the real match did or says where it
+ * went apart. Reports simulated seconds per wall second.
+ * Matches between computer players need no recording; Tournament plays them at full speed.
+ *
+ * Usage: FastForward logFile [repeats]
+ */
+public class FastForward {
+    private static final String TAG = FastForward.class.getCanonicalName();
+
+    public static void main(String[] args) throws IOException {
+        if(args.length<1) {
+            System.err.println("Usage: FastForward logFile [repeats]");
+            System.exit(2);
+        }
+        int repeats = args.length>1 ? Integer.parseInt(args[1]) : 1;
+        InputStream in = new FileInputStream(args[0]);
+        TurnLog log;
+        try {
+            log = TurnLog.read(in);
+        } finally {
+            in.close();
+        }
+
+        //Turns run thousands of times faster than real time. Keep the errors only.
+        Log.setSink(Log.errorsOnly());
+
+        boolean same = true;
+        for(int i=0;i<repeats;i++)
+            same &= replay(log);
+        System.exit(same ? 0 : 1);
+    }
+
+    /**
+     * Play a recorded match from the start to its last turn.
+     * @return True if the state matched every checkpoint of the log.
+     */
+    public static boolean replay(TurnLog log) {
+        long start = System.nanoTime();
+        LockstepSimulation match = log.newMatch();
+        List<GameEvent> commands = new ArrayList<GameEvent>();
+        int checked = 0;
+        for(byte[] turn : log.getTurns()) {
+            int num = LockstepSimulation.decodeTurn(ByteBuffer.wrap(turn),commands);
+            if(num!=match.getTurn())
+                throw new IllegalStateException("Turn log skips from turn "+match.getTurn()+" to "+num);
+            match.runTurn(commands);
+            commands.clear();
+            Long recorded = log.getChecksum(match.getTurn());
+            if(recorded!=null) {
+                if(recorded!=match.checksum()) {
+                    Log.e(TAG,"Replay went apart from the recorded match by turn "+match.getTurn()+
+                            ", after "+checked+" checkpoints matched.");
+                    return false;
+                }
+                checked++;
+            }
+        }
+        double wallSeconds = (System.nanoTime()-start)/1e9;
+        System.out.println(String.format("%d turns, %.1f simulated seconds in %.3f s: %.0f simulated seconds/s. %d/%d checkpoints matched.",
+                match.getTurn(),match.getTime(),wallSeconds,match.getTime()/wallSeconds,checked,log.numCheckpoints()));
+        return true;
+    }
+}
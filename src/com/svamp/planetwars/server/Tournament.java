@@ -0,0 +1,170 @@
+package com.svamp.planetwars.server;
+
+import com.svamp.planetwars.GameState;
+import com.svamp.planetwars.bot.MctsSearch;
+import com.svamp.planetwars.network.GameEvent;
+import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.sim.LockstepSimulation;
+import com.svamp.planetwars.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless self-play. Runs many complete matches between computer players at once, with no network and
+ * no rendering, as fast as the cores allow, and reports win rates and games per second.
+ * Every match is a LockstepSimulation of its own, with its own players and player registry, run on one pool
+ * thread; matches share nothing. Players make the same commands they would send a host, and each turn's
+ * commands are run like a lockstep host runs them.
+ * Seats are rotated from game to game, so no kind of player always gets the same player number and spawn.
+ *
+ * Usage: Tournament [numGames] [players] [numStars] [playoutsPerMove] [maxMatchSeconds] [threads]
+ * players is a comma separated list of player kinds, mcts or random. One player per kind listed.
+ */
+public class Tournament {
+    private final static int DEFAULT_NUM_GAMES = 100;
+    private final static String DEFAULT_PLAYERS = "mcts,random";
+    private final static int DEFAULT_NUM_STARS = 30;
+    private final static int DEFAULT_PLAYOUTS = 1000;
+    private final static float DEFAULT_MAX_MATCH_SECONDS = 600;
+    //Length of a turn. Same as the default tick of a server.
+    private final static int TURN_LENGTH_MS = 70;
+    //How often progress is reported. Games.
+    private final static int REPORT_INTERVAL = 10;
+
+    private final static String MCTS = "mcts";
+    private final static String RANDOM = "random";
+    //Winner of a drawn match.
+    private final static int DRAW = -1;
+
+    private static final String TAG = Tournament.class.getCanonicalName();
+
+    public static void main(String[] args) throws InterruptedException {
+        int numGames = args.length>0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_GAMES;
+        final String[] kinds = (args.length>1 ? args[1] : DEFAULT_PLAYERS).split(",");
+        final int numStars = args.length>2 ? Integer.parseInt(args[2]) : DEFAULT_NUM_STARS;
+        final int playouts = args.length>3 ? Integer.parseInt(args[3]) : DEFAULT_PLAYOUTS;
+        final float maxSeconds = args.length>4 ? Float.parseFloat(args[4]) : DEFAULT_MAX_MATCH_SECONDS;
+        int threads = args.length>5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+        for(String kind : kinds) {
+            if(!kind.equals(MCTS) && !kind.equals(RANDOM))
+                throw new IllegalArgumentException("Unknown player kind: "+kind+". Use "+MCTS+" or "+RANDOM+".");
+        }
+
+        //Thousands of matches make a lot of debug output. Keep the errors only.
+        Log.setSink(Log.errorsOnly());
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<MatchResult> results = new ExecutorCompletionService<MatchResult>(pool);
+        for(int i=0;i<numGames;i++) {
+            final int game = i;
+            results.submit(new Callable<MatchResult>() {
+                @Override
+                public MatchResult call() throws InterruptedException {
+                    return playMatch(game,kinds,numStars,playouts,maxSeconds);
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        int[] wins = new int[kinds.length];
+        int draws = 0, done = 0;
+        double simSeconds = 0;
+        while(done<numGames) {
+            try {
+                MatchResult result = results.take().get();
+                if(result.winner==DRAW) draws++;
+                else wins[result.winner]++;
+                simSeconds+=result.simSeconds;
+            } catch (ExecutionException e) {
+                Log.e(TAG,"Match failed",e.getCause());
+            }
+            done++;
+            if(done%REPORT_INTERVAL==0 || done==numGames)
+                System.out.println(report(kinds,wins,draws,done,simSeconds,(System.nanoTime()-start)/1e9));
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Play one match to the end, or to the time limit.
+     * @param game Number of game. Seeds the galaxy and the players, and rotates the seats.
+     * @return Kind of player that won.
+     */
+    private static MatchResult playMatch(int game, String[] kinds, int numStars, int playouts, float maxSeconds)
+            throws InterruptedException {
+        List<Player> players = new ArrayList<Player>();
+        int[] seatKinds = new int[kinds.length];
+        for(int seat=0;seat<kinds.length;seat++) {
+            Player player = new Player((byte) (seat+1));
+            player.setElementHash(seat+1);
+            players.add(player);
+            seatKinds[seat] = (seat+game)%kinds.length;
+        }
+        LockstepSimulation match = new LockstepSimulation(game,numStars,TURN_LENGTH_MS,players);
+        MctsSearch search = new MctsSearch(match.getStarMap().getGraph(),null,1,game);
+        int turnsPerMove = Math.max(1,Math.round(MctsSearch.MOVE_INTERVAL*1000/TURN_LENGTH_MS));
+
+        List<GameEvent> commands = new ArrayList<GameEvent>();
+        while(match.getTime()<maxSeconds) {
+            if(match.getTurn()%turnsPerMove==0) {
+                GameState state = match.snapshot();
+                if(MctsSearch.numAlive(state)<=1) break;
+                for(int seat=0;seat<players.size();seat++) {
+                    Player player = players.get(seat);
+                    if(!MctsSearch.isAlive(state,player.getPlayerNum())) continue;
+                    if(kinds[seatKinds[seat]].equals(MCTS))
+                        commands.addAll(search.play(state,player,match.getTurnLength(),Long.MAX_VALUE,playouts));
+                    else
+                        commands.addAll(search.playRandom(state,player));
+                }
+            }
+            match.runTurn(commands);
+            commands.clear();
+        }
+        GameState state = match.snapshot();
+
+        //Last one alive wins. At the time limit, the best score does, unless shared.
+        int winner = DRAW;
+        double best = -1;
+        for(int seat=0;seat<players.size();seat++) {
+            double score = MctsSearch.evaluate(state,players.get(seat).getPlayerNum());
+            if(score>best) {
+                best=score;
+                winner=seatKinds[seat];
+            } else if(score==best) {
+                winner=DRAW;
+            }
+        }
+        return new MatchResult(winner,match.getTime());
+    }
+
+    private static String report(String[] kinds, int[] wins, int draws, int games, double simSeconds, double wallSeconds) {
+        StringBuilder report = new StringBuilder();
+        report.append(games).append(" games.");
+        for(int i=0;i<kinds.length;i++)
+            report.append(' ').append(kinds[i]).append('#').append(i).append(": ")
+                    .append(String.format("%.1f%%",100.0*wins[i]/games)).append(" wins.");
+        report.append(String.format(" Draws: %.1f%%. %.2f games/s, %.0f simulated seconds/s.",
+                100.0*draws/games,games/wallSeconds,simSeconds/wallSeconds));
+        return report.toString();
+    }
+
+    private static class MatchResult {
+        //Index of the kind of player that won, or DRAW.
+        private final int winner;
+        //Length of the match. Seconds.
+        private final double simSeconds;
+
+        private MatchResult(int winner, double simSeconds) {
+            this.winner=winner;
+            this.simSeconds=simSeconds;
+        }
+    }
+}
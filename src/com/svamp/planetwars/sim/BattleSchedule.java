@@ -0,0 +1,110 @@
+package com.svamp.planetwars.sim;
+
+import java.util.Arrays;
+
+/**
+ * Star wake-up times, in battle ticks, kept in a hierarchical timing wheel.
+ * Level 0 has a slot for each of the next SLOTS ticks, level 1 a slot for each of the next SLOTS blocks of
+ * SLOTS ticks, and so on. Adding a star and taking out the stars due are O(1) per entry; once every
+ * SLOTS^n ticks, the entries of one level n slot are moved down to the levels below.
+ * The cost of a tick is the number of stars due at it, whatever the number of stars waiting.
+ * Entries are packed into longs (tick in the high bits, star index in the low bits). Nothing is allocated
+ * once the slots have grown.
+ * A star may be in the wheel several times. Only its earliest entry counts; the caller skips the others.
+ */
+class BattleSchedule {
+    private final static int LEVEL_BITS = 6;
+    private final static int SLOTS = 1<<LEVEL_BITS;
+    private final static int SLOT_MASK = SLOTS-1;
+    //Four levels reach 2^24 ticks ahead. Entries further away go in the top level, and come back to it when moved down.
+    private final static int LEVELS = 4;
+
+    //Entries of every slot, and the number in use.
+    private final long[][][] slots = new long[LEVELS][SLOTS][];
+    private final int[][] counts = new int[LEVELS][SLOTS];
+    //Last tick advanced to.
+    private int now = 0;
+    private int size = 0;
+    //Entries taken out by advance, not yet polled.
+    private long[] due = new long[16];
+    private int numDue = 0;
+    private int nextDue = 0;
+
+    BattleSchedule() {
+        for(long[][] level : slots)
+            for(int s=0;s<SLOTS;s++)
+                level[s] = new long[4];
+    }
+
+    /**
+     * @param tick Battle tick to wake the star at. Ticks not after the last advance are due at the next one.
+     * @param star Index of star.
+     */
+    void add(int tick, int star) {
+        place(Math.max(tick,now+1),star);
+        size++;
+    }
+
+    /**
+     * Move the wheel forward to a tick. Entries due at it, and at any tick skipped, are then returned by poll().
+     * @param tick Battle tick to move to. Never earlier than the last one.
+     */
+    void advance(int tick) {
+        numDue=0;
+        nextDue=0;
+        while(now<tick) {
+            now++;
+            //Move down the entries of the higher level slots whose block starts now. Highest first.
+            int level=1;
+            while(level<LEVELS && (now & ((1<<(level*LEVEL_BITS))-1))==0) level++;
+            for(int l=level-1;l>=1;l--)
+                cascade(l,(now>>>(l*LEVEL_BITS)) & SLOT_MASK);
+            expire(now & SLOT_MASK);
+        }
+    }
+
+    /**
+     * Take out an entry due at the last advance.
+     * @return Star index of the entry, or -1 if there are none left.
+     */
+    int poll() {
+        if(nextDue==numDue) return -1;
+        return (int) due[nextDue++];
+    }
+
+    boolean isEmpty() { return size==0; }
+
+    int size() { return size; }
+
+    private void place(int tick, int star) {
+        long entry = ((long) tick<<32) | star;
+        int delta = tick-now;
+        int level=0;
+        while(level<LEVELS-1 && delta>=1<<((level+1)*LEVEL_BITS)) level++;
+        int s = (tick>>>(level*LEVEL_BITS)) & SLOT_MASK;
+        long[] slot = slots[level][s];
+        if(counts[level][s]==slot.length)
+            slots[level][s] = slot = Arrays.copyOf(slot,slot.length*2);
+        slot[counts[level][s]++] = entry;
+    }
+
+    //Place the entries of a slot again, relative to now. They all land on lower levels.
+    private void cascade(int level, int s) {
+        long[] slot = slots[level][s];
+        int count = counts[level][s];
+        counts[level][s] = 0;
+        for(int k=0;k<count;k++)
+            place((int) (slot[k]>>>32),(int) slot[k]);
+    }
+
+    private void expire(int s) {
+        long[] slot = slots[0][s];
+        int count = counts[0][s];
+        if(numDue+count>due.length)
+            due = Arrays.copyOf(due,Math.max(due.length*2,numDue+count));
+        System.arraycopy(slot,0,due,numDue,count);
+        numDue+=count;
+        size-=count;
+        counts[0][s] = 0;
+    }
+}
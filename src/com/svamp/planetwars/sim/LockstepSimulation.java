@@ -0,0 +1,209 @@
+package com.svamp.planetwars.sim;
+
+import com.svamp.planetwars.Fleet;
+import com.svamp.planetwars.GameState;
+import com.svamp.planetwars.network.GameEvent;
+import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.network.PlayerRegistry;
+import com.svamp.planetwars.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Simulation of a match run the same way by the host and by every client in lockstep mode.
+ * Time only advances in turns of fixed length. Each turn first applies the player commands of the turn,
+ * in the order the host accepted them, and then updates stars and fleets. Galaxy and spawns come from the
+ * match seed, so with the same seed, players and commands every participant computes the same state,
+ * and only the commands need to be sent.
+ */
+public class LockstepSimulation {
+    /** How many of the latest turns each LOCKSTEP_TURN packet repeats, so lost packets are made up for. */
+    public final static int TURNS_PER_PACKET = 4;
+    /** How many of the latest turns the host keeps, for clients that fell further behind than a packet makes up for. */
+    public final static int TURN_HISTORY = 1024;
+
+    private final SimStarMap starMap;
+    private final SimShipMap shipMap;
+    private final float dt;
+    //Number of the next turn to run.
+    private int turn = 0;
+
+    private static final String TAG = LockstepSimulation.class.getCanonicalName();
+
+    /**
+     * Client side: rebuild the host's match from what it sent in GAME_START.
+     * @param seed Match seed.
+     * @param numStars Number of stars in the galaxy.
+     * @param tickIntervalMs Length of a turn, in milliseconds.
+     * @param players All players of the match.
+     */
+    public LockstepSimulation(long seed, int numStars, int tickIntervalMs, Collection<Player> players) {
+        PlayerRegistry registry = new PlayerRegistry();
+        for(Player p : players)
+            registry.add(p);
+        this.starMap = SimStarMap.makeSpiralGalaxy(numStars,seed);
+        this.shipMap = new SimShipMap(null,starMap,registry);
+        this.dt = tickIntervalMs/1000f;
+        starMap.setSpawns(players);
+    }
+
+    /**
+     * Host side: run the host's own maps. Spawns must be set already.
+     * @param starMap Stars of the match.
+     * @param shipMap Fleets of the match. Must not send star state itself.
+     * @param tickIntervalMs Length of a turn, in milliseconds.
+     */
+    public LockstepSimulation(SimStarMap starMap, SimShipMap shipMap, int tickIntervalMs) {
+        this.starMap=starMap;
+        this.shipMap=shipMap;
+        this.dt = tickIntervalMs/1000f;
+    }
+
+    /**
+     * Run one turn.
+     * @param commands Commands of this turn, in order. Rejected commands are removed from the list,
+     *                 and the payloads of the rest are cut to the bytes actually read.
+     * @return FLEET_DISPATCHED events for the fleets sent, as a host sending state would send them.
+     */
+    public synchronized List<GameEvent> runTurn(List<GameEvent> commands) {
+        List<GameEvent> dispatches = new ArrayList<GameEvent>();
+        Iterator<GameEvent> it = commands.iterator();
+        while(it.hasNext()) {
+            if(!execute(it.next(),dispatches)) it.remove();
+        }
+        starMap.update(dt);
+        shipMap.update(dt);
+        turn++;
+        return dispatches;
+    }
+
+    //Run a command. A broken one, such as from a player who has left, is rejected; it must not stop the match.
+    private boolean execute(GameEvent command, List<GameEvent> dispatches) {
+        try {
+            return executeCommand(command,dispatches);
+        } catch (RuntimeException e) {
+            Log.e(TAG,"Rejected "+command.getHeader()+" command from player "+command.getUserId(),e);
+            return false;
+        }
+    }
+
+    private boolean executeCommand(GameEvent command, List<GameEvent> dispatches) {
+        ByteBuffer buffer = ByteBuffer.wrap(command.getPayload());
+        boolean accepted;
+        switch(command.getHeader()) {
+            case FLEET_DISPATCHED:
+                byte[] dispatch = shipMap.sendShips(buffer);
+                accepted = dispatch!=null;
+                if(accepted) {
+                    GameEvent event = new GameEvent(command.toByteArray());
+                    event.setPayload(dispatch);
+                    dispatches.add(event);
+                }
+                break;
+            case NEW_BUILD_ORDERS:
+                SimStar star = starMap.getStar(buffer.getInt());
+                byte type = buffer.get();
+                accepted = star!=null && type>=0 && type<Fleet.ShipType.values().length;
+                if(accepted) star.setBuildType(Fleet.ShipType.getByOrdinal(type));
+                break;
+            case REQUEST_MAP: //Everyone makes all their stars dirty, and tells their renderer.
+                starMap.makeAllDirty();
+                accepted = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Not a lockstep command: "+command);
+        }
+        //Received packets are padded. Keep only what the command is made of.
+        if(accepted) command.setPayload(Arrays.copyOf(command.getPayload(),buffer.position()));
+        return accepted;
+    }
+
+    /** @return Number of the next turn to run. */
+    public int getTurn() { return turn; }
+    /** @return Time passed on the map's clock. Seconds. */
+    public double getTime() { return shipMap.getTime(); }
+    public SimStarMap getStarMap() { return starMap; }
+
+    /**
+     * @return Copy of the match as it is between turns, for lookahead. Advance it by turns of getTurnLength().
+     * May be called from any thread.
+     */
+    public synchronized GameState snapshot() {
+        GameState state = starMap.snapshot(shipMap.getPlayers().getPlayers(),shipMap.getTime());
+        shipMap.addFlightsTo(state);
+        return state;
+    }
+
+    /**
+     * @return Checksum of the match as it is between turns. Equal on every participant that ran the same turns.
+     * May be called from any thread.
+     */
+    public synchronized long checksum() {
+        return snapshot().checksum();
+    }
+
+    /** @return Length of a turn. Seconds. */
+    public float getTurnLength() { return dt; }
+
+    /**
+     * Serialize one turn.
+     * Format:
+     * turn: int
+     * numCommands: short
+     * [commands]: length short, followed by the serialized GameEvent.
+     * @param turn Number of turn.
+     * @param commands Accepted commands of the turn, in order.
+     * @return Serialized turn.
+     */
+    public static byte[] encodeTurn(int turn, List<GameEvent> commands) {
+        int size = 6;
+        byte[][] serialized = new byte[commands.size()][];
+        for(int i=0;i<serialized.length;i++) {
+            serialized[i] = commands.get(i).toByteArray();
+            size += 2+serialized[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(turn).putShort((short) serialized.length);
+        for(byte[] command : serialized)
+            buffer.putShort((short) command.length).put(command);
+        return buffer.array();
+    }
+
+    /**
+     * Read one turn serialized by encodeTurn.
+     * @param buffer Buffer to read from.
+     * @param commands Receives the commands of the turn.
+     * @return Number of turn.
+     */
+    public static int decodeTurn(ByteBuffer buffer, List<GameEvent> commands) {
+        int turn = buffer.getInt();
+        short numCommands = buffer.getShort();
+        for(int i=0;i<numCommands;i++) {
+            byte[] command = new byte[buffer.getShort()];
+            buffer.get(command);
+            commands.add(new GameEvent(command));
+        }
+        return turn;
+    }
+
+    /**
+     * Payload of a LOCKSTEP_TURN packet. Format: numTurns: byte, followed by the turns.
+     * @param turns Serialized turns, oldest first.
+     * @return Payload.
+     */
+    public static byte[] makeTurnPacket(Collection<byte[]> turns) {
+        int size = 1;
+        for(byte[] turn : turns)
+            size += turn.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte) turns.size());
+        for(byte[] turn : turns)
+            buffer.put(turn);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,67 @@
+package com.svamp.planetwars.sim;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Updates the stars of a SimStarMap on a ForkJoinPool. The stars to update are split in halves until
+ * pieces are small enough to run on one thread. Results go into the slot of each star, so
+ * the caller can merge them in star order afterwards.
+ * Needs java.util.concurrent.ForkJoinPool, which android does not have at our API level.
+ * Only the dedicated server uses this; an android host updates stars on its tick thread.
+ */
+public class ParallelStarUpdater {
+    //Stars updated by one task without splitting further.
+    private final static int STARS_PER_TASK = 256;
+
+    private final ForkJoinPool pool;
+
+    public ParallelStarUpdater(ForkJoinPool pool) {
+        this.pool=pool;
+    }
+
+    /**
+     * Run a battle tick on the given stars. Blocks until every star is done.
+     * @param stars All stars of the map.
+     * @param indices Indices in stars of the stars to update.
+     * @param results Receives the update result of star indices[k] in results[k].
+     * @param count Number of indices in use.
+     * @param dt Time passed. Seconds.
+     */
+    void update(List<SimStar> stars, int[] indices, int[] results, int count, float dt) {
+        pool.invoke(new UpdateTask(stars,indices,results,dt,0,count));
+    }
+
+    private static class UpdateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<SimStar> stars;
+        private final int[] indices;
+        private final int[] results;
+        private final float dt;
+        private final int from;
+        private final int to;
+
+        private UpdateTask(List<SimStar> stars, int[] indices, int[] results, float dt, int from, int to) {
+            this.stars=stars;
+            this.indices=indices;
+            this.results=results;
+            this.dt=dt;
+            this.from=from;
+            this.to=to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to-from<=STARS_PER_TASK) {
+                for(int k=from;k<to;k++)
+                    results[k] = stars.get(indices[k]).tick(dt);
+                return;
+            }
+            int mid = (from+to)>>>1;
+            invokeAll(new UpdateTask(stars,indices,results,dt,from,mid),
+                    new UpdateTask(stars,indices,results,dt,mid,to));
+        }
+    }
+}
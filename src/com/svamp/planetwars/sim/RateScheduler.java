@@ -0,0 +1,168 @@
+package com.svamp.planetwars.sim;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the subsystems of a host, each at its own rate, within the ticks of a TickScheduler.
+ * A task runs every period ticks and states a budget: the time one run is expected to take at most.
+ * Required tasks (the simulation) run whenever they are due, in the order they were added; the match depends on it.
+ * Deferrable tasks (pings, state broadcasts) then run in order of how late they are, while the time left of the
+ * tick covers their budget. A task that does not fit waits for a later tick, but runs once it is a whole period late.
+ * Time spent is counted per task, for tuning rates and budgets per deployment.
+ */
+public class RateScheduler implements TickScheduler.Tickable {
+    private final List<Task> tasks = new ArrayList<Task>();
+    //Deferrable tasks due this tick, most late first. Kept to not allocate every tick.
+    private final List<Task> due = new ArrayList<Task>();
+    private final long tickBudgetNanos;
+
+    private final static Comparator<Task> BY_DUE_TICK = new Comparator<Task>() {
+        @Override
+        public int compare(Task lhs, Task rhs) {
+            long l = lhs.lastTick+lhs.period, r = rhs.lastTick+rhs.period;
+            return l<r ? -1 : l>r ? 1 : 0;
+        }
+    };
+
+    /**
+     * @param tickBudgetNanos Time all tasks of a tick should fit in. Usually the tick interval.
+     */
+    public RateScheduler(long tickBudgetNanos) {
+        this.tickBudgetNanos=tickBudgetNanos;
+    }
+
+    /**
+     * Add a task, first run on the next tick.
+     * @param name Name of the task, in reports.
+     * @param period Ticks between runs.
+     * @param budgetNanos Longest a run is expected to take.
+     * @param deferrable True if runs may be put off to later ticks when a tick runs out of time.
+     * @param work Work of the task. Given the number of the tick, and the time since the task last ran.
+     * @return The task.
+     */
+    public Task add(String name, int period, long budgetNanos, boolean deferrable, TickScheduler.Tickable work) {
+        Task task = new Task(name,budgetNanos,deferrable,work);
+        task.setPeriod(period);
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * @return Task with the given name, or null if there is none.
+     */
+    public Task getTask(String name) {
+        for(Task task : tasks)
+            if(task.name.equals(name)) return task;
+        return null;
+    }
+
+    @Override
+    public void tick(long tickNum, float dt) {
+        long start = System.nanoTime();
+        due.clear();
+        for(Task task : tasks) {
+            if(!task.scheduled) { //First tick seen. Run now.
+                task.lastTick = tickNum-task.period;
+                task.scheduled = true;
+            }
+            if(tickNum-task.lastTick<task.period) continue;
+            if(task.deferrable) due.add(task);
+            else task.run(tickNum,dt);
+        }
+        //Most late first, so a busy host spreads the delay over all tasks.
+        Collections.sort(due,BY_DUE_TICK);
+        for(Task task : due) {
+            boolean fits = System.nanoTime()-start+task.budgetNanos<=tickBudgetNanos;
+            //A task put off for a whole period runs anyway.
+            if(fits || tickNum-task.lastTick>=2*task.period) task.run(tickNum,dt);
+            else task.deferrals++;
+        }
+    }
+
+    /**
+     * Sum the counts of tasks of the same name over several schedulers, such as the matches of a server.
+     * @return One line per task name.
+     */
+    public static String report(Collection<RateScheduler> schedulers) {
+        //runs, total nanos, max nanos, runs over budget, deferrals
+        Map<String,long[]> sums = new LinkedHashMap<String,long[]>();
+        for(RateScheduler scheduler : schedulers) {
+            for(Task task : scheduler.tasks) {
+                long[] sum = sums.get(task.name);
+                if(sum==null) sums.put(task.name,sum=new long[5]);
+                sum[0]+=task.runs;
+                sum[1]+=task.totalNanos;
+                sum[2]=Math.max(sum[2],task.maxNanos);
+                sum[3]+=task.overBudget;
+                sum[4]+=task.deferrals;
+            }
+        }
+        StringBuilder report = new StringBuilder();
+        for(Map.Entry<String,long[]> entry : sums.entrySet()) {
+            long[] sum = entry.getValue();
+            if(report.length()>0) report.append('\n');
+            report.append(String.format("[%s runs=%d time(total/mean/max)=%.1f/%.3f/%.3fms overBudget=%d deferred=%d]",
+                    entry.getKey(),sum[0],sum[1]/1e6,sum[0]==0 ? 0 : sum[1]/1e6/sum[0],sum[2]/1e6,sum[3],sum[4]));
+        }
+        return report.toString();
+    }
+
+    public String toString() {
+        return report(Collections.singletonList(this));
+    }
+
+    /**
+     * A subsystem run by the scheduler. Counts are written by the ticking thread only.
+     */
+    public static class Task {
+        private final String name;
+        private final long budgetNanos;
+        private final boolean deferrable;
+        private final TickScheduler.Tickable work;
+        private volatile int period;
+        //Tick of the last run. Set to a period before the first tick seen.
+        private long lastTick;
+        private boolean scheduled = false;
+
+        private volatile long runs = 0;
+        private volatile long totalNanos = 0;
+        private volatile long maxNanos = 0;
+        private volatile long overBudget = 0;
+        private volatile long deferrals = 0;
+
+        private Task(String name, long budgetNanos, boolean deferrable, TickScheduler.Tickable work) {
+            this.name=name;
+            this.budgetNanos=budgetNanos;
+            this.deferrable=deferrable;
+            this.work=work;
+        }
+
+        /**
+         * @param period Ticks between runs. Takes effect from the next run. May be called from any thread.
+         */
+        public void setPeriod(int period) {
+            if(period<1) throw new IllegalArgumentException("Period of "+name+" must be at least 1 tick, was "+period);
+            this.period=period;
+        }
+
+        public int getPeriod() { return period; }
+        public String getName() { return name; }
+
+        private void run(long tickNum, float dt) {
+            long start = System.nanoTime();
+            work.tick(tickNum,dt*(tickNum-lastTick));
+            long time = System.nanoTime()-start;
+            lastTick = tickNum;
+            runs++;
+            totalNanos+=time;
+            if(time>maxNanos) maxNanos=time;
+            if(time>budgetNanos) overBudget++;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.svamp.planetwars.sim;
+
+import com.svamp.planetwars.Fleet;
+import com.svamp.planetwars.GameState;
+import com.svamp.planetwars.network.AbstractGameCommunicator;
+import com.svamp.planetwars.network.GameEvent;
+import com.svamp.planetwars.network.PackageHeader;
+import com.svamp.planetwars.network.PlayerRegistry;
+import com.svamp.planetwars.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.PriorityQueue;
+
+/**
+ * The host's fleets in flight. The arrival time of a fleet is computed when it is sent,
+ * and the fleet waits in a queue ordered by arrival until it is handed to the target star's battlefield.
+ * Flying fleets cost nothing per tick. No rendering.
+ */
+public class SimShipMap {
+    //Flights by arrival. Dispatches come from the socket thread, updates from the tick thread; lock on the queue.
+    private final PriorityQueue<Flight> flights = new PriorityQueue<Flight>();
+    //Time passed since the map was made. Seconds.
+    private double time = 0;
+    //Number of flights sent. Orders flights arriving at the same time by dispatch.
+    private long numSent = 0;
+    private final SimStarMap starMap;
+    private volatile AbstractGameCommunicator communicator;
+    private final PlayerRegistry players;
+
+    private static final String TAG = SimShipMap.class.getCanonicalName();
+
+    /**
+     * @param communicator Communicator to send star state changes through. May be null.
+     * @param starMap Map the fleets fly between.
+     * @param players Players fleet owners are resolved in.
+     */
+    public SimShipMap(AbstractGameCommunicator communicator,SimStarMap starMap,PlayerRegistry players) {
+        this.communicator=communicator;
+        this.starMap=starMap;
+        this.players=players;
+    }
+
+    /**
+     * @param communicator Communicator to send star state changes through, or null to only mark stars dirty.
+     */
+    public void setCommunicator(AbstractGameCommunicator communicator) {
+        this.communicator=communicator;
+    }
+
+    public void update(float dt) {
+        while(true) {
+            Flight arrived;
+            synchronized (flights) {
+                if(flights.isEmpty() || flights.peek().arrival>time+dt) break;
+                arrived = flights.poll();
+            }
+            shipArrived(arrived);
+        }
+        synchronized (flights) {
+            time+=dt;
+        }
+    }
+
+    /**
+     * @return Time passed on the map's clock. Seconds. Fleet departures are given in this time.
+     */
+    public double getTime() {
+        synchronized (flights) {
+            return time;
+        }
+    }
+
+    /**
+     * Add the fleets in flight to a captured state. @see SimStarMap.snapshot(Collection, double)
+     * @param state State captured from this map's stars.
+     */
+    public void addFlightsTo(GameState state) {
+        synchronized (flights) {
+            for(Flight flight : flights)
+                state.addFlight(flight.dest.getIndex(),flight.fleet,flight.arrival);
+        }
+    }
+
+    public PlayerRegistry getPlayers() { return players; }
+
+    public int numFlights() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+
+    /**
+     * Instruction in Host ordering a fleet to be sent.
+     * Validates the move, subtracts the fleet from source and launches it towards target.
+     * @param buffer ByteBuffer describing the action.
+     * @return FLEET_DISPATCHED payload telling clients about the flight, or null if this is not an allowed action.
+     */
+    public byte[] sendShips(ByteBuffer buffer) {
+        SimStar source = starMap.getStar(buffer.getInt());
+        SimStar target = starMap.getStar(buffer.getInt());
+        //Dummy fleet.
+        Fleet fleet = new Fleet(buffer,players);
+        //Unknown star, or source same as target? Not allowed!
+        if(source==null || target==null || source.equals(target)) return null;
+
+        //Find fleet belonging to owner.
+        Fleet starFleet = source.getBattleField().getFleetWithOwner(fleet.getOwner());
+
+        /*
+         * If the fleet in this star is too small to accommodate
+         * splitting out the fleet ordered to be sent, just return false.
+         * Also, return false if this player has no fleet here.
+         */
+        if(starFleet==null || !fleet.isSubsetOf(starFleet)) {
+            Log.d(TAG, "Error! Tried to send a starFleet the did not exist! Tried to send:" + fleet + " from fleet " + starFleet);
+            return null;
+        }
+        //Remove the provided number of units from the starFleet.
+        starFleet.subtract(fleet);
+
+        //Send new state.
+        AbstractGameCommunicator communicator = this.communicator;
+        if(communicator==null) {
+            //Nobody to tell right away. Goes with the next dirty stars.
+            starMap.fireStarStateChanged(1,source);
+        } else {
+            GameEvent event = new GameEvent(PackageHeader.STAR_STATE_CHANGED,fleet.getOwner());
+            ByteBuffer starBuffer = ByteBuffer.allocate(3+source.getSerializedSize());
+            starBuffer.putShort((short)1); //Number of stars affected
+            starBuffer.put((byte)1); //Severity.
+            starBuffer.put(source.getSerialization());
+            event.setPayload(starBuffer.array());
+            communicator.sendData(event.toByteArray());
+        }
+        double departure;
+        synchronized (flights) {
+            departure = time;
+            flights.add(new Flight(fleet,target,departure+distance(source,target)/Fleet.MAX_SPEED,numSent++));
+        }
+        /*
+         * Format:
+         * source: int, star index
+         * target: int, star index
+         * departure: double, map time
+         * speed: float
+         * fleet: variable size, so last
+         * Clients compute the position of the fleet at any time from these.
+         */
+        return ByteBuffer.allocate(20+fleet.getSerializedSize())
+                .putInt(source.getIndex()).putInt(target.getIndex())
+                .putDouble(departure).putFloat(Fleet.MAX_SPEED)
+                .put(fleet.getSerialization())
+                .array();
+    }
+
+    private void shipArrived(Flight flight) {
+        Log.d(TAG,"Host registered that a ship had arrived.");
+        flight.dest.getBattleField().addFleet(flight.fleet);
+        starMap.fireStarStateChanged(1,flight.dest);
+    }
+
+    private static double distance(SimStar a, SimStar b) {
+        float dx = b.centerX()-a.centerX();
+        float dy = b.centerY()-a.centerY();
+        return Math.sqrt(dx*dx+dy*dy);
+    }
+
+    /**
+     * A fleet flying in a straight line between two stars.
+     */
+    private static class Flight implements Comparable<Flight> {
+        private final Fleet fleet;
+        private final SimStar dest;
+        //Time of arrival, on the map's clock.
+        private final double arrival;
+        private final long sequence;
+
+        private Flight(Fleet fleet, SimStar dest, double arrival, long sequence) {
+            this.fleet=fleet;
+            this.dest=dest;
+            this.arrival=arrival;
+            this.sequence=sequence;
+        }
+
+        @Override
+        public int compareTo(Flight other) {
+            if(arrival!=other.arrival) return arrival<other.arrival ? -1 : 1;
+            return sequence<other.sequence ? -1 : (sequence==other.sequence ? 0 : 1);
+        }
+    }
+}
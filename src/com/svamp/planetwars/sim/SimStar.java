@@ -0,0 +1,110 @@
+package com.svamp.planetwars.sim;
+
+import com.svamp.planetwars.BattleField;
+import com.svamp.planetwars.Fleet;
+import com.svamp.planetwars.FleetTable;
+import com.svamp.planetwars.Star;
+import com.svamp.planetwars.network.ByteSerializeable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Headless star used by the host. Holds the same game state as a StarSprite,
+ * without any rendering, and serializes to the exact format StarSprite reads.
+ */
+public class SimStar implements Star,ByteSerializeable {
+    //Position of this star in the map's star list and fleet table. Also its unique ID.
+    private final int index;
+    //Top left corner and diameter. Stars are square.
+    private float left;
+    private float top;
+    private final float size;
+
+    private final BattleField battleField;
+    private Fleet.ShipType buildType = Fleet.ShipType.RED_SHIP;
+
+    /**
+     * @param index Index of this star in the map and in fleets. Unique ID of the star.
+     * @param radius Radius of star
+     * @param fleets Table holding the ship numbers of the map.
+     */
+    public SimStar(int index, float radius, FleetTable fleets) {
+        this.index=index;
+        this.size=radius*2;
+        this.battleField = new BattleField(this,fleets,index);
+    }
+
+    /**
+     * Runs one battle tick for this star. Touches no state outside this star,
+     * so different stars may be updated in parallel.
+     * @param dt Time passed in the host tick reaching the battle tick. Seconds.
+     * @return @see BattleField.update(float dt)
+     */
+    public int tick(float dt) {
+        return battleField.tick(dt);
+    }
+
+    public void setPos(float x, float y) {
+        left=x;
+        top=y;
+    }
+
+    public void move(float dx, float dy) {
+        left+=dx;
+        top+=dy;
+    }
+
+    public float centerX() { return left+size/2; }
+    public float centerY() { return top+size/2; }
+
+    @Override
+    public int getElementHash() { return index; }
+
+    public int getIndex() { return index; }
+
+    @Override
+    public float getSize() { return size; }
+
+    @Override
+    public BattleField getBattleField() { return battleField; }
+
+    @Override
+    public Fleet.ShipType getBuildType() { return buildType; }
+
+    public void setBuildType(Fleet.ShipType buildType) {
+        this.buildType=buildType;
+    }
+
+    @Override
+    public byte[] getSerialization() {
+        ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize());
+        //Same layout as StarSprite: index, bounds, build type, battlefield.
+        buffer.putInt(index)
+                .putFloat(left).putFloat(top).putFloat(left+size).putFloat(top+size)
+                .put((byte) buildType.ordinal())
+                .put(battleField.getSerialization());
+        return buffer.array();
+    }
+
+    @Override
+    public void updateFromSerialization(ByteBuffer buffer) {
+        throw new UnsupportedOperationException("The host owns star state. It is never updated from the network.");
+    }
+
+    @Override
+    public int getSerializedSize() {
+        return 21+battleField.getSerializedSize();
+    }
+
+    public String toString() {
+        return "[SimStar at:"+centerX()+"x"+centerY()+"]";
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof SimStar && ((SimStar) o).index==index;
+    }
+
+    public int hashCode() {
+        return index;
+    }
+}
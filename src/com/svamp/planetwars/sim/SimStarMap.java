@@ -0,0 +1,395 @@
+package com.svamp.planetwars.sim;
+
+import com.svamp.planetwars.BattleField;
+import com.svamp.planetwars.Fleet;
+import com.svamp.planetwars.FleetTable;
+import com.svamp.planetwars.GameState;
+import com.svamp.planetwars.math.Vector;
+import com.svamp.planetwars.network.ByteSerializeable;
+import com.svamp.planetwars.Star;
+import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The host's authoritative star map. Owns all star state and produces the
+ * STAR_STATE_CHANGED payloads clients build their StarMap from. No rendering.
+ * Stars sleep until their battlefield's next event (a battle tick, or a ship being built) and are woken
+ * from a schedule, so stars where nothing happens cost nothing per tick.
+ */
+public class SimStarMap implements ByteSerializeable,BattleField.Listener {
+    //Complete set of stars on map. A star's position in the list is its index.
+    private final List<SimStar> stars = new ArrayList<SimStar>();
+    //Ship numbers of every fleet at every star.
+    private final FleetTable fleets;
+    //Battle clock. Every battlefield on the map ticks at the same time.
+    private float battleTime = 0;
+    private int battleTick = 0;
+    //Stars to wake, by battle tick: a timing wheel. Guards wakeTicks and syncedTicks too.
+    private final BattleSchedule schedule = new BattleSchedule();
+    //Battle tick each star is scheduled to wake at, 0 if none.
+    private int[] wakeTicks = new int[0];
+    //Battle tick each star's battlefield is up to date with.
+    private int[] syncedTicks = new int[0];
+    //Indices of the stars updated this tick, ascending, and their update results. Only the first numUpdated are in use.
+    private int[] updatedStars = new int[0];
+    private int[] updateResults = new int[0];
+    private int numUpdated = 0;
+    //Updates stars in parallel if set.
+    private ParallelStarUpdater parallelUpdater;
+    //Neighbours of every star. Built with the galaxy.
+    private StarGraph graph;
+    //Subset of stars having changed state.
+    private List<SimStar> dirtyStars = new ArrayList<SimStar>();
+    private final Object dirtyStarMonitor = new Object();
+    private byte dirtyStarsSeverity = 0;
+
+    private final static float MAX_RADIUS = 2.5f;
+
+    private static final String TAG = SimStarMap.class.getCanonicalName();
+
+    //Built by makeSpiralGalaxy.
+    private SimStarMap(FleetTable fleets) {
+        this.fleets=fleets;
+    }
+
+    public void update(float dt) {
+        battleTime+=dt;
+        if(battleTime<BattleField.TICK_LENGTH) return; //No star does anything between battle ticks.
+        battleTime-=BattleField.TICK_LENGTH;
+        synchronized (schedule) {
+            battleTick++;
+            numUpdated=0;
+            schedule.advance(battleTick);
+            for(int i=schedule.poll();i>=0;i=schedule.poll()) {
+                if(wakeTicks[i]!=battleTick) continue; //Woken earlier, or already taken this tick.
+                wakeTicks[i]=0;
+                //Catch up on the ticks slept through, then run this one.
+                stars.get(i).getBattleField().skipTicks(battleTick-1-syncedTicks[i]);
+                syncedTicks[i]=battleTick;
+                updatedStars[numUpdated++]=i;
+            }
+        }
+        //The wheel hands out stars in no particular order. Update them in star order.
+        Arrays.sort(updatedStars,0,numUpdated);
+        if(parallelUpdater!=null) {
+            parallelUpdater.update(stars,updatedStars,updateResults,numUpdated,dt);
+        } else {
+            for(int k=0;k<numUpdated;k++)
+                updateResults[k] = stars.get(updatedStars[k]).tick(dt);
+        }
+        //Merge in star order, so the dirty list does not depend on thread timing.
+        for(int k=0;k<numUpdated;k++) {
+            SimStar star = stars.get(updatedStars[k]);
+            if(updateResults[k]!=0)
+                fireStarStateChanged(updateResults[k],star);
+            synchronized (schedule) {
+                scheduleWake(star);
+            }
+        }
+    }
+
+    @Override
+    public void fleetsAdded(Star star) {
+        SimStar simStar = (SimStar) star;
+        synchronized (schedule) {
+            //Bring the build counter up to date, as the next event is predicted from it.
+            int i = simStar.getIndex();
+            simStar.getBattleField().skipTicks(battleTick-syncedTicks[i]);
+            syncedTicks[i]=battleTick;
+            scheduleWake(simStar);
+        }
+    }
+
+    //Schedule the next event of a star, unless it is already to wake up sooner. Hold the schedule lock.
+    private void scheduleWake(SimStar star) {
+        int ticks = star.getBattleField().ticksToNextEvent();
+        if(ticks<0) return;
+        int i = star.getIndex();
+        int tick = syncedTicks[i]+ticks;
+        if(wakeTicks[i]!=0 && wakeTicks[i]<=tick) return;
+        wakeTicks[i]=tick;
+        schedule.add(tick,i);
+    }
+
+    /**
+     * @return Number of stars waiting for a future event.
+     */
+    public int numScheduledStars() {
+        synchronized (schedule) {
+            int num=0;
+            for(int tick : wakeTicks)
+                if(tick!=0) num++;
+            return num;
+        }
+    }
+
+    /**
+     * Capture the stars for lookahead. Call from the thread updating the map.
+     * @param players Players of the match.
+     * @param time Time on the map's clock. @see SimShipMap.getTime()
+     * @return State of the stars, without fleets in flight. @see SimShipMap.addFlightsTo(GameState)
+     */
+    public GameState snapshot(Collection<Player> players, double time) {
+        float[] centers = new float[2*stars.size()];
+        synchronized (schedule) {
+            //Sleeping stars have not counted the ticks slept through yet.
+            for(int i=0;i<stars.size();i++) {
+                SimStar star = stars.get(i);
+                star.getBattleField().skipTicks(battleTick-syncedTicks[i]);
+                syncedTicks[i]=battleTick;
+                centers[2*i]=star.centerX();
+                centers[2*i+1]=star.centerY();
+            }
+            return new GameState(stars,centers,players,time,battleTime);
+        }
+    }
+
+    /**
+     * Run star updates on multiple threads. Stars are independent within a tick.
+     * @param updater Updater to use, or null to update stars on the calling thread.
+     */
+    public void setParallelUpdater(ParallelStarUpdater updater) {
+        this.parallelUpdater=updater;
+    }
+
+    /**
+     * @param index Index of star, as sent on the wire.
+     * @return Star with the given index, or null if there is none.
+     */
+    public SimStar getStar(int index) {
+        return index>=0 && index<stars.size() ? stars.get(index) : null;
+    }
+
+    public Collection<SimStar> getStars() {
+        return Collections.unmodifiableList(stars);
+    }
+
+    public FleetTable getFleets() { return fleets; }
+
+    /**
+     * @return Neighbour graph of the stars, by star index.
+     */
+    public StarGraph getGraph() { return graph; }
+
+    /**
+     * Callback from SimStar when state has changed.
+     * @param cause @see BattleField.update(float dt)
+     * @param star The SimStar who is cause for the change.
+     */
+    public void fireStarStateChanged(int cause,SimStar star) {
+        synchronized (dirtyStarMonitor) {
+            if(cause == 0) return;
+            dirtyStars.add(star);
+            dirtyStarsSeverity = (byte) Math.max(dirtyStarsSeverity,cause);
+        }
+    }
+
+    public boolean isDirty() {
+        return !dirtyStars.isEmpty();
+    }
+
+    /**
+     * Only serializes stars marked as dirty (stars changed since last call to this function).
+     * @return Serialized dirty stars.
+     */
+    @Override
+    public byte[] getSerialization() {
+        synchronized (dirtyStarMonitor) {
+            ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize());
+            buffer.putShort((short) (dirtyStars.size()));
+            buffer.put(dirtyStarsSeverity);
+
+            for(SimStar s : dirtyStars) {
+                buffer.put(s.getSerialization());
+            }
+            dirtyStars.clear(); // Clear dirty stars after transmission.
+            dirtyStarsSeverity=0;
+            return buffer.array();
+        }
+    }
+
+    @Override
+    public void updateFromSerialization(ByteBuffer buffer) {
+        throw new UnsupportedOperationException("The host owns star state. It is never updated from the network.");
+    }
+
+    @Override
+    public int getSerializedSize() {
+        synchronized (dirtyStarMonitor) {
+            int size=3; //First short, plus one "severity byte"
+            for(SimStar item : dirtyStars) {
+                size += item.getSerializedSize();
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Forget the stars changed since the last serialization, for hosts not sending star state.
+     */
+    public void clearDirty() {
+        synchronized (dirtyStarMonitor) {
+            dirtyStars.clear();
+            dirtyStarsSeverity=0;
+        }
+    }
+
+    public void makeAllDirty() {
+        synchronized (dirtyStarMonitor) {
+            dirtyStars = new ArrayList<SimStar>();
+        }
+        Log.d(TAG,"Making "+stars.size()+" stars dirty..");
+        for(SimStar s : stars)
+            fireStarStateChanged(2,s);
+    }
+
+    /**
+     * Give every player a home star with a starting fleet.
+     * Players are placed in order of player number, so the result does not depend on the order of players.
+     * @param players Players to place.
+     */
+    public void setSpawns(Collection<Player> players) {
+        List<Player> sorted = new ArrayList<Player>(players);
+        Collections.sort(sorted,new Comparator<Player>() {
+            @Override
+            public int compare(Player lhs, Player rhs) {
+                return lhs.getPlayerNum()-rhs.getPlayerNum();
+            }
+        });
+        double angle = 2*StrictMath.PI/sorted.size();
+        for(int i=0;i<sorted.size();i++) {
+            Player p = sorted.get(i);
+            //Spread evenly on a circle, starting at the top.
+            Vector pos = new Vector((float) (-MAX_RADIUS*StrictMath.sin(i*angle)),(float) (MAX_RADIUS*StrictMath.cos(i*angle)));
+            Fleet home = new Fleet(p,(short)20,(short)20,(short)20);
+            SimStar spawn = getClosest(pos);
+            Log.d(TAG,"Set spawn for "+p.getPlayerName()+" spawn at: "+spawn.centerX()+" X "+spawn.centerY());
+            spawn.getBattleField().setHomeFleet(home);
+        }
+    }
+
+    /**
+     * Gets the star closest to the given position (manhattan distance).
+     * @param p Position to search from.
+     * @return Closest star.
+     */
+    private SimStar getClosest(Vector p) {
+        SimStar closest=null;
+        float closestDist = Float.MAX_VALUE;
+        for(SimStar s : stars) {
+            float dist = Math.abs(s.centerX()-p.x)+Math.abs(s.centerY()-p.y);
+            if(dist<closestDist) {
+                closest=s;
+                closestDist=dist;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Makes a galaxy from a random seed. @see makeSpiralGalaxy(int numStars, long seed)
+     */
+    public static SimStarMap makeSpiralGalaxy(int numStars) {
+        return makeSpiralGalaxy(numStars,new Random().nextLong());
+    }
+
+    /**
+     * Comprehensive algorithm for creating a game galaxy with specified size,
+     * number of elements, and number of arms.
+     * The same seed always gives the same galaxy, on any JVM: all randomness comes from the seed,
+     * and StrictMath is used for functions Math may compute differently between platforms.
+     * @param numStars Number of stars in the galaxy
+     * @param seed Seed of the galaxy.
+     * @return A gameMap.
+     */
+    public static SimStarMap makeSpiralGalaxy(int numStars, long seed) {
+        Log.d(TAG,"Generating stars, Number:"+numStars+" seed:"+seed);
+        final Random random = new Random(seed);
+        final SimStar[] stars = new SimStar[numStars];
+        final FleetTable fleets = new FleetTable(numStars);
+        //logarithmic spiral constant a*e^bt
+        final double a = 1;
+        final double b = 0.2;
+        //rotation degree (PI means each arm has one rotation
+        final double windings = 4;
+
+        //tMax is maximum angle (windings*2pi)
+        final double tMax = 2.0 * StrictMath.PI * windings;
+
+        // How far stars may be away from spiral arm centers.
+        final float drift = 0.004f;
+
+        //Create center star
+        stars[0] = new SimStar(0,0.15f,fleets);
+        stars[0].setPos(-0.15f,-0.15f);
+
+        for(int i=1;i<numStars;i++) {
+
+            double t = 0.5+tMax * StrictMath.pow(random.nextDouble(),0.15f);
+            double x = a * StrictMath.exp(b * t) * StrictMath.cos(t);
+            x += ((drift * t * x * (random.nextDouble() - random.nextDouble())));
+            double y = a * StrictMath.exp(b * t) * StrictMath.sin(t);
+            y += ((drift * t * y * (random.nextDouble() - random.nextDouble())));
+            //Scale for maxRad
+            x *= MAX_RADIUS / (a * StrictMath.exp(b * tMax));
+            y *= MAX_RADIUS / (a * StrictMath.exp(b * tMax));
+            //Create actual planet
+            stars[i] = new SimStar(i,(float) (0.03f+0.02f*random.nextDouble()),fleets);
+            //2 spiral arms. Move planet to correct spot.
+            //Galaxy is now centered on origin.
+            if(random.nextDouble() > 0.5) {
+                stars[i].setPos((float) (x), (float) (y));
+            }
+            else {
+                stars[i].setPos((float) (-x), (float) (-y));
+            }
+        }
+        /*
+         * Begin dirty code to check if stars are properly spread out
+         */
+        boolean collision=true;
+        Log.d(TAG,"Resolving collisions between stars..");
+        while(collision) {
+            collision=false;
+            for(SimStar s1 : stars) {
+                for(SimStar s2 : stars) {
+                    //s1 radius+s2 radius *2
+                    float minLength = (s1.getSize()+s2.getSize());
+                    //If distance from one star to another is less than their min length, they collide. Stars' bounds are twice their actual size.
+                    double distSq = StrictMath.pow(s1.centerX()-s2.centerX(),2)+
+                            StrictMath.pow(s1.centerY()-s2.centerY(),2);
+
+                    if(Math.sqrt(distSq)<minLength && s1!=s2) {
+                        collision=true;
+                        float dx=s1.centerX()-s2.centerX();
+                        float dy=s1.centerY()-s2.centerY();
+                        //Just add some star's radius in direction of speed*2, for a little distance. Never center star. Center star is always center.
+                        (s1==stars[0] ? s2 : s1).move(Math.signum(dx)*s2.getSize()*2, Math.signum(dy)*s2.getSize()*2);
+                    }
+                }
+            }
+        }
+        //Generation complete. Build data structure.
+        SimStarMap map = new SimStarMap(fleets);
+        for(SimStar star : stars) {
+            map.stars.add(star);
+            star.getBattleField().setListener(map);
+        }
+        map.graph = StarGraph.build(map.stars);
+        Log.d(TAG,"Star graph has "+map.graph.numEdges()+" edges.");
+        map.wakeTicks = new int[stars.length];
+        map.syncedTicks = new int[stars.length];
+        map.updatedStars = new int[stars.length];
+        map.updateResults = new int[stars.length];
+        return map;
+    }
+}
@@ -0,0 +1,183 @@
+package com.svamp.planetwars.sim;
+
+import java.util.List;
+
+/**
+ * Neighbour graph of the stars of a map, built once with the galaxy.
+ * Every star is joined to its NUM_NEAREST nearest stars, and edges go both ways. Where that leaves groups of
+ * stars unconnected, the closest pair of stars between them is joined too, so every star can be reached from
+ * every other. Stars are known by their index in the map.
+ * Edges are stored in flat arrays: the edges of star i are edges start(i) to end(i)-1, nearest first.
+ * Reading the graph allocates nothing:
+ * for(int e=graph.start(i);e<graph.end(i);e++) { int neighbour=graph.target(e); float dist=graph.length(e); }
+ */
+public final class StarGraph {
+    /** Number of nearest stars each star is joined to. */
+    public final static int NUM_NEAREST = 6;
+
+    //Edges of star i are offsets[i] to offsets[i+1]-1. Each edge has a target star and a length.
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] lengths;
+
+    private StarGraph(int[] offsets, int[] targets, float[] lengths) {
+        this.offsets=offsets;
+        this.targets=targets;
+        this.lengths=lengths;
+    }
+
+    public int numStars() { return offsets.length-1; }
+    public int numEdges() { return targets.length; }
+
+    /** @return Index of the first edge of a star. */
+    public int start(int star) { return offsets[star]; }
+    /** @return One past the index of the last edge of a star. */
+    public int end(int star) { return offsets[star+1]; }
+    public int degree(int star) { return offsets[star+1]-offsets[star]; }
+    /** @return Star an edge leads to. */
+    public int target(int edge) { return targets[edge]; }
+    /** @return Distance between the stars an edge joins. */
+    public float length(int edge) { return lengths[edge]; }
+
+    /**
+     * @return True if the two stars are joined by an edge.
+     */
+    public boolean isNeighbour(int star, int other) {
+        for(int e=offsets[star];e<offsets[star+1];e++)
+            if(targets[e]==other) return true;
+        return false;
+    }
+
+    /**
+     * Build the graph of a map's stars. Only float arithmetic is used, so every JVM builds the same graph.
+     * @param stars Stars, in index order.
+     * @return Graph of the stars.
+     */
+    static StarGraph build(List<SimStar> stars) {
+        final int n = stars.size();
+        float[] xs = new float[n];
+        float[] ys = new float[n];
+        for(int i=0;i<n;i++) {
+            xs[i]=stars.get(i).centerX();
+            ys[i]=stars.get(i).centerY();
+        }
+        int[][] adjacent = new int[n][NUM_NEAREST];
+        int[] degrees = new int[n];
+        //Nearest stars of each star, closest first. Equally close stars are taken in index order.
+        int k = Math.min(NUM_NEAREST,n-1);
+        int[] nearest = new int[k];
+        float[] nearestDist = new float[k];
+        for(int i=0;i<n && k>0;i++) {
+            int found=0;
+            for(int j=0;j<n;j++) {
+                if(j==i) continue;
+                float dist = distSq(xs,ys,i,j);
+                if(found==k && dist>=nearestDist[k-1]) continue;
+                int pos = found<k ? found++ : k-1;
+                while(pos>0 && nearestDist[pos-1]>dist) {
+                    nearest[pos]=nearest[pos-1];
+                    nearestDist[pos]=nearestDist[pos-1];
+                    pos--;
+                }
+                nearest[pos]=j;
+                nearestDist[pos]=dist;
+            }
+            for(int m=0;m<found;m++)
+                join(adjacent,degrees,i,nearest[m]);
+        }
+        connect(adjacent,degrees,xs,ys);
+
+        //Flatten, each star's edges sorted nearest first.
+        int[] offsets = new int[n+1];
+        for(int i=0;i<n;i++)
+            offsets[i+1]=offsets[i]+degrees[i];
+        int[] targets = new int[offsets[n]];
+        float[] lengths = new float[offsets[n]];
+        for(int i=0;i<n;i++) {
+            for(int m=0;m<degrees[i];m++) {
+                int j = adjacent[i][m];
+                float length = (float) Math.sqrt(distSq(xs,ys,i,j));
+                int pos = offsets[i]+m;
+                while(pos>offsets[i] && (lengths[pos-1]>length || (lengths[pos-1]==length && targets[pos-1]>j))) {
+                    targets[pos]=targets[pos-1];
+                    lengths[pos]=lengths[pos-1];
+                    pos--;
+                }
+                targets[pos]=j;
+                lengths[pos]=length;
+            }
+        }
+        return new StarGraph(offsets,targets,lengths);
+    }
+
+    /**
+     * Join groups of stars not connected to star 0, each by the shortest edge between it and the stars connected so far.
+     */
+    private static void connect(int[][] adjacent, int[] degrees, float[] xs, float[] ys) {
+        final int n = degrees.length;
+        if(n==0) return;
+        boolean[] reached = new boolean[n];
+        int[] stack = new int[n];
+        int numReached = flood(adjacent,degrees,reached,stack,0);
+        while(numReached<n) {
+            int from=-1, to=-1;
+            float best = Float.MAX_VALUE;
+            for(int i=0;i<n;i++) {
+                if(!reached[i]) continue;
+                for(int j=0;j<n;j++) {
+                    if(reached[j]) continue;
+                    float dist = distSq(xs,ys,i,j);
+                    if(dist<best) {
+                        best=dist;
+                        from=i;
+                        to=j;
+                    }
+                }
+            }
+            join(adjacent,degrees,from,to);
+            numReached+=flood(adjacent,degrees,reached,stack,to);
+        }
+    }
+
+    //Mark every star connected to start. Returns the number of stars newly marked.
+    private static int flood(int[][] adjacent, int[] degrees, boolean[] reached, int[] stack, int start) {
+        int size=0, num=0;
+        stack[size++]=start;
+        reached[start]=true;
+        while(size>0) {
+            int i = stack[--size];
+            num++;
+            for(int m=0;m<degrees[i];m++) {
+                int j = adjacent[i][m];
+                if(!reached[j]) {
+                    reached[j]=true;
+                    stack[size++]=j;
+                }
+            }
+        }
+        return num;
+    }
+
+    //Add an edge both ways, unless it is there already.
+    private static void join(int[][] adjacent, int[] degrees, int i, int j) {
+        for(int m=0;m<degrees[i];m++)
+            if(adjacent[i][m]==j) return;
+        add(adjacent,degrees,i,j);
+        add(adjacent,degrees,j,i);
+    }
+
+    private static void add(int[][] adjacent, int[] degrees, int i, int j) {
+        if(degrees[i]==adjacent[i].length) {
+            int[] grown = new int[degrees[i]*2];
+            System.arraycopy(adjacent[i],0,grown,0,degrees[i]);
+            adjacent[i]=grown;
+        }
+        adjacent[i][degrees[i]++]=j;
+    }
+
+    private static float distSq(float[] xs, float[] ys, int i, int j) {
+        float dx = xs[i]-xs[j];
+        float dy = ys[i]-ys[j];
+        return dx*dx+dy*dy;
+    }
+}
@@ -0,0 +1,110 @@
+package com.svamp.planetwars.sim;
+
+/**
+ * Fixed timestep loop driving the host simulation.
+ * Real time is measured with System.nanoTime and collected in an accumulator. Every whole
+ * tick interval in the accumulator runs one tick, always with the same dt, so the simulation
+ * keeps pace with the wall clock instead of drifting. A host falling behind catches up with at
+ * most MAX_CATCH_UP_TICKS ticks in a row; time beyond that is dropped and counted.
+ */
+public class TickScheduler implements Runnable {
+    //Most ticks run back to back before the scheduler gives up catching up.
+    private final static int MAX_CATCH_UP_TICKS = 5;
+
+    private final Tickable target;
+    private final long tickNanos;
+    private volatile boolean running = true;
+
+    //Statistics. Written by the tick thread only.
+    private volatile long tickCount = 0;
+    private volatile long overrunCount = 0;
+    private volatile long droppedTicks = 0;
+    private volatile long maxLatenessNanos = 0;
+    private volatile long totalLatenessNanos = 0;
+
+    /**
+     * @param target Receiver of the ticks.
+     * @param tickIntervalMs Simulated (and real) time between ticks, in milliseconds.
+     */
+    public TickScheduler(Tickable target, int tickIntervalMs) {
+        if(tickIntervalMs<=0) throw new IllegalArgumentException("Tick interval must be positive, was "+tickIntervalMs);
+        this.target=target;
+        this.tickNanos=tickIntervalMs*1000000L;
+    }
+
+    @Override
+    public void run() {
+        final float dt = tickNanos/1e9f;
+        long accumulator = tickNanos; //Run the first tick right away.
+        long last = System.nanoTime();
+        while(running) {
+            long now = System.nanoTime();
+            accumulator += now-last;
+            last = now;
+
+            int ticksRun = 0;
+            while(accumulator>=tickNanos && ticksRun<MAX_CATCH_UP_TICKS && running) {
+                //How long after its scheduled start this tick is run.
+                long lateness = accumulator-tickNanos;
+                totalLatenessNanos += lateness;
+                if(lateness>maxLatenessNanos) maxLatenessNanos=lateness;
+
+                long tickStart = System.nanoTime();
+                target.tick(tickCount,dt);
+                if(System.nanoTime()-tickStart>tickNanos) overrunCount++;
+
+                tickCount++;
+                accumulator -= tickNanos;
+                ticksRun++;
+            }
+            if(accumulator>=tickNanos) {
+                //Too far behind to catch up. Drop whole ticks, keep the phase.
+                droppedTicks += accumulator/tickNanos;
+                accumulator %= tickNanos;
+            }
+            long sleepNanos = tickNanos-accumulator-(System.nanoTime()-last);
+            if(sleepNanos>0) {
+                try {
+                    Thread.sleep(sleepNanos/1000000L,(int) (sleepNanos%1000000L));
+                } catch (InterruptedException ignored) {}
+            }
+        }
+    }
+
+    public void stop() {
+        running=false;
+    }
+
+    public int getTickIntervalMs() { return (int) (tickNanos/1000000L); }
+    /** @return Number of ticks run so far. */
+    public long getTickCount() { return tickCount; }
+    /** @return Number of ticks that took longer to run than the tick interval. */
+    public long getOverrunCount() { return overrunCount; }
+    /** @return Number of ticks skipped because the host fell too far behind. */
+    public long getDroppedTicks() { return droppedTicks; }
+    /** @return Largest delay between when a tick was due and when it ran, milliseconds. */
+    public float getMaxLatenessMs() { return maxLatenessNanos/1e6f; }
+    /** @return Mean delay between when a tick was due and when it ran, milliseconds. */
+    public float getMeanLatenessMs() {
+        long ticks = tickCount;
+        return ticks==0 ? 0 : totalLatenessNanos/1e6f/ticks;
+    }
+
+    public String toString() {
+        return "[TickScheduler interval="+getTickIntervalMs()+"ms ticks="+tickCount+
+                " overruns="+overrunCount+" dropped="+droppedTicks+
+                " lateness(mean/max)="+getMeanLatenessMs()+"/"+getMaxLatenessMs()+"ms]";
+    }
+
+    /**
+     * Receiver of fixed length ticks.
+     */
+    public interface Tickable {
+        /**
+         * Run one tick of the simulation.
+         * @param tickNum Number of this tick, counting from 0.
+         * @param dt Simulated time covered by the tick. Seconds. Always the same.
+         */
+        void tick(long tickNum, float dt);
+    }
+}
@@ -0,0 +1,164 @@
+package com.svamp.planetwars.sim;
+
+import com.svamp.planetwars.network.Player;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record of a lockstep match: how to build it, the commands of every turn, and checksums of the state on the way.
+ * A LockstepSimulation needs nothing else to play the match again, as fast as the CPU allows and to the same state.
+ * Format:
+ * magic: int
+ * seed: long, numStars: int, tickIntervalMs: int
+ * numPlayers: byte, [players]: length short, followed by the serialized Player.
+ * [records]: kind byte, followed by
+ *   TURN: length short, followed by the turn as encoded by LockstepSimulation.encodeTurn.
+ *   CHECKPOINT: number of turns run int, checksum of the state after them long.
+ * A log ends at the end of the stream. A record cut short, as when the host died while writing it, ends it too.
+ * The header must be whole, or the log cannot be read.
+ */
+public class TurnLog {
+    /** Turns between checkpoints. */
+    public final static int CHECKPOINT_INTERVAL = 30;
+
+    private final static int MAGIC = 0x50575431; //"PWT1"
+    private final static byte TURN = 0;
+    private final static byte CHECKPOINT = 1;
+
+    private final long seed;
+    private final int numStars;
+    private final int tickIntervalMs;
+    private final List<Player> players;
+    //Serialized turns, in order.
+    private final List<byte[]> turns = new ArrayList<byte[]>();
+    //Checksums by number of turns run.
+    private final Map<Integer,Long> checkpoints = new HashMap<Integer,Long>();
+
+    private TurnLog(long seed, int numStars, int tickIntervalMs, List<Player> players) {
+        this.seed=seed;
+        this.numStars=numStars;
+        this.tickIntervalMs=tickIntervalMs;
+        this.players=players;
+    }
+
+    /**
+     * @param in Stream holding a log written by a Recorder. Read to the end, not closed.
+     * @return The log.
+     * @throws IOException If the stream fails, does not hold a log, or ends within the header.
+     */
+    public static TurnLog read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        TurnLog log;
+        try {
+            if(data.readInt()!=MAGIC) throw new IOException("Not a turn log");
+            long seed = data.readLong();
+            int numStars = data.readInt();
+            int tickIntervalMs = data.readInt();
+            List<Player> players = new ArrayList<Player>();
+            byte numPlayers = data.readByte();
+            for(int i=0;i<numPlayers;i++)
+                players.add(new Player(readBlock(data)));
+            log = new TurnLog(seed,numStars,tickIntervalMs,players);
+        } catch (EOFException e) { //Without all of the header, the match cannot be built.
+            throw new IOException("Turn log cut short in header",e);
+        }
+        try {
+            int kind;
+            while((kind=data.read())!=-1) {
+                if(kind==TURN) log.turns.add(readBlock(data));
+                else if(kind==CHECKPOINT) log.checkpoints.put(data.readInt(),data.readLong());
+                else throw new IOException("Broken turn log. Unknown record "+kind+" after turn "+log.turns.size());
+            }
+        } catch (EOFException ignored) {} //Cut short. Keep the records read whole.
+        return log;
+    }
+
+    private static byte[] readBlock(DataInputStream data) throws IOException {
+        byte[] block = new byte[data.readUnsignedShort()];
+        data.readFully(block);
+        return block;
+    }
+
+    /**
+     * @return A new match, as it was before the first turn of the log.
+     */
+    public LockstepSimulation newMatch() {
+        return new LockstepSimulation(seed,numStars,tickIntervalMs,players);
+    }
+
+    /** @return Serialized turns, in order. Decode with LockstepSimulation.decodeTurn. */
+    public List<byte[]> getTurns() { return turns; }
+
+    /**
+     * @param turnsRun Number of turns run.
+     * @return Checksum of the recorded state after that many turns, or null if there is no checkpoint there.
+     */
+    public Long getChecksum(int turnsRun) { return checkpoints.get(turnsRun); }
+
+    public int numCheckpoints() { return checkpoints.size(); }
+
+    /**
+     * Writes a TurnLog as a lockstep match is played. Every turn must be recorded, right after it is run.
+     */
+    public static class Recorder {
+        private final DataOutputStream out;
+
+        /**
+         * @param out Stream to write to. Closed by close().
+         */
+        public Recorder(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+        }
+
+        /**
+         * Record how the match is built. Call before the first turn.
+         * @param players All players of the match.
+         */
+        public void start(long seed, int numStars, int tickIntervalMs, Collection<Player> players) throws IOException {
+            out.writeInt(MAGIC);
+            out.writeLong(seed);
+            out.writeInt(numStars);
+            out.writeInt(tickIntervalMs);
+            out.writeByte(players.size());
+            for(Player player : players)
+                writeBlock(player.getSerialization());
+        }
+
+        /**
+         * Record a turn. Every CHECKPOINT_INTERVAL turns, the state of the match is recorded too, and the log flushed.
+         * @param turn Turn as encoded by LockstepSimulation.encodeTurn.
+         * @param match Match the turn was run on.
+         */
+        public void turn(byte[] turn, LockstepSimulation match) throws IOException {
+            out.writeByte(TURN);
+            writeBlock(turn);
+            if(match.getTurn()%CHECKPOINT_INTERVAL==0) {
+                out.writeByte(CHECKPOINT);
+                out.writeInt(match.getTurn());
+                out.writeLong(match.checksum());
+                out.flush();
+            }
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeBlock(byte[] block) throws IOException {
+            out.writeShort(block.length);
+            out.write(block);
+        }
+    }
+}
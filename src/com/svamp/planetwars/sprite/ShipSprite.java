@@ -1,26 +1,46 @@
 package com.svamp.planetwars.sprite;
 
 import android.opengl.GLES20;
+import android.opengl.Matrix;
 import com.svamp.planetwars.Fleet;
 import com.svamp.planetwars.R;
 import com.svamp.planetwars.ShipMap;
 import com.svamp.planetwars.opengl.TextureTool;
-import com.svamp.planetwars.math.Vector;
 
 import javax.microedition.khronos.opengles.GL10;
 
 /**
  * Abstract ship representing every ship in the game.
+ * A ship's position is a function of host time: it flies in a straight line from its source at a fixed speed,
+ * starting at its departure. Vertices stay on the source star; the ship is moved by translating its matrix.
+ * Fleets sent along the same route shortly after each other join one ship. It keeps a slot per fleet,
+ * is drawn where the first fleet still flying is, and is done when the last one has arrived.
  */
 public class ShipSprite extends AbstractSquareSprite {
+    //How soon after the last fleet of a ship another one must leave to join it. Seconds of host time.
+    private final static double JOIN_WINDOW = 0.5;
+
     private int glTexId = -1;
     private final ShipMap shipMap;
-    private final Vector speed = new Vector(0,0);
+    private StarSprite src;
     private StarSprite dest;
+    //Sum of the fleets still flying.
     private final Fleet fleet;
-
-
-    private final static float MAX_SPEED = .3f;
+    //Velocity. Units per second.
+    private float speedX;
+    private float speedY;
+    //Time from departure to arrival. Seconds.
+    private double flightTime;
+    //Fleets flying, and their departures in host time. Ring buffer, oldest first. Guarded by this.
+    private Fleet[] slotFleets = new Fleet[2];
+    private double[] departures = new double[2];
+    private int firstSlot = 0;
+    private int numSlots = 0;
+    //Distance flown at last update.
+    private float offsetX;
+    private float offsetY;
+    //mvpMatrix translated by the distance flown.
+    private final float[] flightMatrix = new float[16];
 
 
     /**
@@ -30,11 +50,13 @@ public class ShipSprite extends AbstractSquareSprite {
      */
     public ShipSprite(ShipMap shipMap,Fleet fleet) {
         this.shipMap = shipMap;
-        this.fleet=fleet;
+        this.fleet=new Fleet(fleet.getOwner(),0,0,0);
+        addSlot(fleet,0);
         this.setSize(0.1f, 0.1f);
     }
 
     public Fleet getFleet() { return fleet; }
+    public StarSprite getSrc() { return src; }
     public StarSprite getDest() { return dest; }
 
     @Override
@@ -46,22 +68,67 @@ public class ShipSprite extends AbstractSquareSprite {
             super.setTexture(glTexId);
         }
 
-        //Draw Quad
-        super.draw(glUnused,mvpMatrix);
+        //Draw Quad where the ship is now.
+        Matrix.translateM(flightMatrix,0,mvpMatrix,0,offsetX,offsetY,0);
+        super.draw(glUnused,flightMatrix);
     }
 
-    public void update(float dt) {
-        if(speed.x!=0 && speed.y!=0) {
-            float dx=bounds.centerX()-dest.getBounds().centerX();
-            float dy=bounds.centerY()-dest.getBounds().centerY();
-            if(Math.abs(dx)+Math.abs(dy)<=(Math.abs(speed.x)+Math.abs(speed.y))*dt) {
-                //Signal to shipMap that we've arrived.
-                shipMap.shipArrived(this);
+    /**
+     * Place the ship where it is at the given time.
+     * @param hostTime Current host time. Seconds.
+     */
+    public void update(double hostTime) {
+        synchronized (this) {
+            //Drop the fleets that have arrived.
+            while(numSlots>0 && hostTime>=departures[firstSlot]+flightTime) {
+                fleet.subtract(slotFleets[firstSlot]);
+                slotFleets[firstSlot]=null;
+                firstSlot=(firstSlot+1)%slotFleets.length;
+                numSlots--;
+            }
+            if(numSlots>0) {
+                float flown = (float) Math.max(0,hostTime-departures[firstSlot]);
+                offsetX = speedX*flown;
+                offsetY = speedY*flown;
+                return;
             }
-            else {
-                this.move(speed.x*dt, speed.y*dt);
+        }
+        //Signal to shipMap that we've arrived.
+        shipMap.shipArrived(this);
+    }
+
+    /**
+     * Let a fleet sent along the same route join this ship.
+     * @param other Fleet sent.
+     * @param departure Host time the fleet left.
+     * @return True if the fleet joined. False if it left too long after the last one,
+     * has another owner, or this ship has arrived.
+     */
+    public synchronized boolean join(Fleet other, double departure) {
+        if(numSlots==0 || !other.getOwner().equals(fleet.getOwner())) return false;
+        if(departure-departures[(firstSlot+numSlots-1)%departures.length]>JOIN_WINDOW) return false;
+        addSlot(other,departure);
+        return true;
+    }
+
+    private void addSlot(Fleet other, double departure) {
+        if(numSlots==slotFleets.length) {
+            //Full. Grow, unwrapping the ring.
+            Fleet[] fleets = new Fleet[numSlots*2];
+            double[] times = new double[numSlots*2];
+            for(int i=0;i<numSlots;i++) {
+                fleets[i]=slotFleets[(firstSlot+i)%numSlots];
+                times[i]=departures[(firstSlot+i)%numSlots];
             }
+            slotFleets=fleets;
+            departures=times;
+            firstSlot=0;
         }
+        int slot = (firstSlot+numSlots)%slotFleets.length;
+        slotFleets[slot]=other;
+        departures[slot]=departure;
+        numSlots++;
+        fleet.add(other);
     }
 
     /**
@@ -69,6 +136,7 @@ public class ShipSprite extends AbstractSquareSprite {
      * @param src Sprite to place ship on.
      */
     public void setSrc(StarSprite src) {
+        this.src=src;
         setPos(src.getBounds().centerX()-bounds.width()/2,
                src.getBounds().centerY()-bounds.height()/2);
     }
@@ -76,15 +144,17 @@ public class ShipSprite extends AbstractSquareSprite {
     /**
      * Set ship destination. This causes the ship to start moving.
      * @param dest Sprite to approach.
+     * @param departure Host time the ship's first fleet left its source.
+     * @param speed Distance flown per second.
      */
-    //
-    public void setDest(StarSprite dest) {
-        //Dummy speed x-y vars. Only important thing is that the direction is correct
-        float ySp = dest.getBounds().centerY()-bounds.centerY();
-        float xSp = dest.getBounds().centerX()-bounds.centerX();
-        //Scale factor to assure speed squared equals MAX_SPEED_SQ
+    public synchronized void setDest(StarSprite dest, double departure, float speed) {
+        float dx = dest.getBounds().centerX()-bounds.centerX();
+        float dy = dest.getBounds().centerY()-bounds.centerY();
+        float distance = (float) Math.sqrt(dx*dx+dy*dy);
         this.dest=dest;
-        speed.set(xSp,ySp);
-        speed.setLength(MAX_SPEED);
+        speedX = dx/distance*speed;
+        speedY = dy/distance*speed;
+        departures[firstSlot]=departure;
+        flightTime=distance/speed;
     }
 }
@@ -4,9 +4,10 @@ import android.opengl.GLES20;
 import com.svamp.planetwars.BattleField;
 import com.svamp.planetwars.Fleet;
 import com.svamp.planetwars.GameEngine;
-import com.svamp.planetwars.StarMap;
+import com.svamp.planetwars.Star;
 import com.svamp.planetwars.opengl.TextureTool;
 import com.svamp.planetwars.network.Player;
+import com.svamp.planetwars.util.DoubleBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 import java.nio.ByteBuffer;
@@ -16,7 +17,7 @@ import java.nio.ByteBuffer;
  * Its only variable parameter is size.
  */
 
-public class StarSprite extends AbstractSquareSprite {
+public class StarSprite extends AbstractSquareSprite implements Star {
     private final int drawableTexId;
     private int glTexId = -1;
 
@@ -24,11 +25,14 @@ public class StarSprite extends AbstractSquareSprite {
      * Game mechanic variables follow
      */
     //Every star is a battlefield. Some stars have battlefields with multiple actors within.
-    private final BattleField battleField = new BattleField(this);
-
-    private Fleet.ShipType buildType = Fleet.ShipType.RED_SHIP;
-
-    private StarMap hostMap;
+    //Game state is kept in two copies: one drawn, one decoded into by the network thread. buffers picks the copy.
+    private final BattleField[] battleFields = { new BattleField(this), new BattleField(this) };
+    private final Fleet.ShipType[] buildTypes = { Fleet.ShipType.RED_SHIP, Fleet.ShipType.RED_SHIP };
+    //Number of the map update last decoded into each copy.
+    private final int[] versions = new int[2];
+    private final DoubleBuffer buffers;
+    //Stars do not move. Bounds are taken from the first update only.
+    private boolean placed = false;
 
     //Some literal strings, for gui purposes
     private static final String[] ownershipDesc = {"NEUTRAL","ENEMY","YOURS"};
@@ -38,17 +42,15 @@ public class StarSprite extends AbstractSquareSprite {
      * StarSprite constructor
      * @param radius Radius of star
      * @param drawableTexId drawable ID (android R.drawable)
+     * @param buffers Picks the copy of the game state to read and to write. Shared by all stars of the map.
      */
-    public StarSprite(float radius,int drawableTexId) {
+    public StarSprite(float radius,int drawableTexId,DoubleBuffer buffers) {
         this.drawableTexId = drawableTexId;
+        this.buffers = buffers;
         //Bounds == radius*2.
         this.setSize(radius*2, radius*2);
     }
 
-    public void setCallback(StarMap hostMap) {
-        this.hostMap=hostMap;
-    }
-
     /*
      * Check if sprite is in screen and draw! Recalculate from global coords to screen coords!
      */
@@ -65,40 +67,56 @@ public class StarSprite extends AbstractSquareSprite {
         super.draw(glUnused,mvpMatrix);
     }
 
-    @Override
-    public void update(float dt) {
-            int result = battleField.update(dt);
-            if(hostMap!=null && result!=0)
-                hostMap.fireStarStateChanged(result,this);
-    }
-
     @Override
     public byte[] getSerialization() {
         //Fetch data from ancestors, add it to the returned result.
         byte[] ancestor = super.getSerialization();
 
         //Fetch battlefield..
-        byte[] _battleField = battleField.getSerialization();
+        int copy = buffers.current();
+        byte[] _battleField = battleFields[copy].getSerialization();
 
-        ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize());
+        ByteBuffer buffer = ByteBuffer.allocate(ancestor.length+1+_battleField.length);
 
         //Put current and max HP. 4*2 bytes.
         buffer.put(ancestor)
-                .put((byte) buildType.ordinal())
+                .put((byte) buildTypes[copy].ordinal())
                 .put(_battleField);
         return buffer.array();
     }
 
     @Override
     public void updateFromSerialization(ByteBuffer buffer) {
-        super.updateFromSerialization(buffer); //Update ancestor
-        buildType = Fleet.ShipType.getByOrdinal(buffer.get()); //Selected craft to build.
-        battleField.updateFromSerialization(buffer);
+        updateFromSerialization(buffer,getVersion()+1);
     }
 
+    /**
+     * Update the back copy of the game state. It is shown once the map swaps copies.
+     * @param version Number of the map update. Decoding the same update into both copies gives them the same version.
+     */
+    public void updateFromSerialization(ByteBuffer buffer, int version) {
+        if(!placed) {
+            super.updateFromSerialization(buffer); //Update ancestor
+            placed = true;
+        } else { //Skip bounds. Rewriting the vertices could tear a frame being drawn.
+            if(buffer.getInt(buffer.position())!=getElementHash())
+                throw new IllegalStateException("Bytebuffer with wrongly placed pointer passed to element!");
+            buffer.position(buffer.position()+super.getSerializedSize());
+        }
+        int copy = buffers.back();
+        buildTypes[copy] = Fleet.ShipType.getByOrdinal(buffer.get()); //Selected craft to build.
+        battleFields[copy].updateFromSerialization(buffer);
+        versions[copy] = version;
+    }
+
+    /**
+     * @return Number of the last map update that changed this star. Equal versions mean equal game state.
+     */
+    public int getVersion() { return versions[buffers.current()]; }
+
     @Override
     public int getSerializedSize() {
-        return 1+super.getSerializedSize()+battleField.getSerializedSize();
+        return 1+super.getSerializedSize()+getBattleField().getSerializedSize();
     }
 
     /**
@@ -110,7 +128,11 @@ public class StarSprite extends AbstractSquareSprite {
         //TODO: Add sweet GfX for selected stars!
     }
 
-    public BattleField getBattleField() { return battleField; }
+    @Override
+    public BattleField getBattleField() { return battleFields[buffers.current()]; }
+
+    @Override
+    public float getSize() { return bounds.width(); }
 
     public Player getOwnership() { return getBattleField().getHomeFleet().getOwner(); }
     public String getOwnershipDesc() {
@@ -119,7 +141,7 @@ public class StarSprite extends AbstractSquareSprite {
         return ownershipDesc[1];
     }
     public boolean containsPlayer(Player player) {
-        return battleField.getFleetWithOwner(player) != null;
+        return getBattleField().getFleetWithOwner(player) != null;
     }
 
     /**
@@ -131,10 +153,15 @@ public class StarSprite extends AbstractSquareSprite {
     }
 
 
+    /**
+     * Set the build type shown until the host's next update.
+     */
     public void setBuildType(Fleet.ShipType buildType) {
-        this.buildType=buildType;
+        buildTypes[0]=buildType;
+        buildTypes[1]=buildType;
     }
-    public Fleet.ShipType getBuildType() { return buildType; }
+    @Override
+    public Fleet.ShipType getBuildType() { return buildTypes[buffers.current()]; }
 
     public String toString() {
         return "[StarSprite at:"+bounds.centerX()+"x"+bounds.centerY()+"]";
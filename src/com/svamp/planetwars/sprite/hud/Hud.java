@@ -21,6 +21,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Heads-up-display for game. Used by gameEngine.
@@ -30,6 +32,8 @@ public class Hud extends HudSprite {
     private final Map<HudItem,Sprite> hudSprites = new HashMap<HudItem, Sprite>();
     private final SortedSet<HudSprite> zDepthCache = new TreeSet<HudSprite>().descendingSet();
     private final GameEngine gEngine;
+    //Plays out the battles of battle previews. One thread is plenty; only the last battle asked for is played.
+    private final ExecutorService previewWorker = Executors.newSingleThreadExecutor();
     private int glTexId = -1;
     /* Identity matrix to be sent to draw calls to ensure HUD is not translated according to MVP-matrix. */
     private final float[] identityMatrix = new float[16];
@@ -166,6 +170,17 @@ public class Hud extends HudSprite {
                 bs.setPos(-1,-w*0.35f);
                 bs.setSize(w*0.9f,w*0.2f);
                 addSprite(HudItem.LAUNCH_BUTTON, bs);
+
+                if(target.getOwnership()!=GameEngine.getPlayer()) {
+                    PreviewSprite ps = new PreviewSprite(source,target,
+                            (SliderSprite) hudSprites.get(HudItem.RED_SLIDER),
+                            (SliderSprite) hudSprites.get(HudItem.GREEN_SLIDER),
+                            (SliderSprite) hudSprites.get(HudItem.BLUE_SLIDER),
+                            gEngine.getClient().getTickLength(),previewWorker);
+                    ps.setPos(-1,-w*0.5f);
+                    ps.setSize(w*0.9f,w*0.1f);
+                    addSprite(HudItem.BATTLE_PREVIEW, ps);
+                }
             }
         }
     }
@@ -189,6 +204,13 @@ public class Hud extends HudSprite {
         gEngine.getClient().sendData(event.toByteArray());
     }
 
+    /**
+     * Stop the threads of the HUD. It is not drawn again.
+     */
+    public void stop() {
+        previewWorker.shutdownNow();
+    }
+
     public void buildSelectionChanged(Fleet.ShipType type) {
         StarSprite source = gEngine.getLastSelectedSource();
         GameEvent event = new GameEvent(PackageHeader.NEW_BUILD_ORDERS,GameEngine.getPlayer());
@@ -227,7 +249,8 @@ public class Hud extends HudSprite {
         RED_SLIDER(Color.RED),
         GREEN_SLIDER(Color.GREEN),
         BUILD_SELECTION(Color.GRAY),
-        LAUNCH_BUTTON(0);
+        LAUNCH_BUTTON(0),
+        BATTLE_PREVIEW(0);
 
         private final int color;
         HudItem(int c) {
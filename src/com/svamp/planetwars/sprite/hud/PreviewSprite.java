@@ -0,0 +1,162 @@
+package com.svamp.planetwars.sprite.hud;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import com.svamp.planetwars.BattlePreview;
+import com.svamp.planetwars.Fleet;
+import com.svamp.planetwars.GameEngine;
+import com.svamp.planetwars.GameState;
+import com.svamp.planetwars.sprite.StarSprite;
+
+import javax.microedition.khronos.opengles.GL10;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Predicted outcome of the attack set up on the sliders: survivors and time to capture.
+ * Battles are played out by BattlePreview on a worker thread, never on the GL thread.
+ * Outcomes are cached by target state version and slider values, so dragging the sliders over mixes
+ * already seen costs a lookup.
+ */
+public class PreviewSprite extends HudSprite {
+    //Outcomes remembered per selection.
+    private final static int CACHE_SIZE = 64;
+    private final StarSprite target;
+    private final SliderSprite red, green, blue;
+    private final float flightTime;
+    private final float updateDt;
+    private final ExecutorService worker;
+    private final TextSprite text;
+
+    //Least recently used outcomes go first.
+    private final Map<Key,BattlePreview> cache = new LinkedHashMap<Key,BattlePreview>(CACHE_SIZE,.75f,true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key,BattlePreview> eldest) {
+            return size()>CACHE_SIZE;
+        }
+    };
+    //Outcome shown, and the last one asked of the worker. Only used by the GL thread.
+    private Key shown, requested;
+    //Battles asked for before this one are not worth playing any more.
+    private volatile Key latest;
+
+    /**
+     * @param source Star the fleet is sent from.
+     * @param target Star attacked.
+     * @param red Slider selecting red ships. Likewise green and blue.
+     * @param updateDt Length of a host update. Seconds. Damage done per battle tick is proportional to it.
+     * @param worker Thread playing out the battles.
+     */
+    public PreviewSprite(StarSprite source, StarSprite target, SliderSprite red, SliderSprite green, SliderSprite blue,
+                         float updateDt, ExecutorService worker) {
+        this.target=target;
+        this.red=red;
+        this.green=green;
+        this.blue=blue;
+        this.updateDt=updateDt;
+        this.worker=worker;
+        float dx = target.getBounds().centerX()-source.getBounds().centerX();
+        float dy = target.getBounds().centerY()-source.getBounds().centerY();
+        this.flightTime = (float) Math.sqrt(dx*dx+dy*dy)/Fleet.MAX_SPEED;
+
+        Paint textStyle = new Paint();
+        textStyle.setColor(Color.BLACK);
+        textStyle.setTextSize(30);
+        text = new TextSprite(textStyle, textStyle);
+        text.changeText("Predicting..");
+        text.setZVal(-.11f);
+    }
+
+    @Override
+    public void draw(GL10 glUnused, float[] mvpMatrix) {
+        //Only the text is drawn.
+    }
+
+    @Override
+    public void update(float dt) {
+        int version = target.getVersion();
+        short r = red.getVal(), g = green.getVal(), b = blue.getVal();
+        if(shown!=null && shown.is(version,r,g,b)) return;
+        //Only allocate a key when the sliders or the target changed.
+        Key key = requested!=null && requested.is(version,r,g,b) ? requested : new Key(version,r,g,b);
+        BattlePreview preview;
+        synchronized (cache) {
+            preview = cache.get(key);
+        }
+        if(preview!=null) {
+            shown = key;
+            text.changeText(preview.toString());
+        } else if(key!=requested) {
+            requested = key;
+            submit(key);
+        }
+    }
+
+    //Copy the target now, while the frame holds star state still, and play the battle on the worker.
+    private void submit(final Key key) {
+        final GameState state = BattlePreview.capture(target,GameEngine.getPlayers());
+        final Fleet fleet = new Fleet(GameEngine.getPlayer(),key.red,key.blue,key.green);
+        latest = key;
+        try {
+            worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(latest!=key) return; //Sliders moved on.
+                    BattlePreview preview = BattlePreview.simulate(state,0,fleet,flightTime,updateDt);
+                    synchronized (cache) {
+                        cache.put(key,preview);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ignored) {} //Hud stopped. Nothing more is shown.
+    }
+
+    @Override
+    public void updateVertices() {
+        super.updateVertices();
+        text.setPos(bounds.left,bounds.centerY()-bounds.height()/2);
+        // Text doesn't care about width.
+        text.setSize(1337,bounds.height());
+    }
+
+    @Override
+    public Collection<HudSprite> getSprites() {
+        return text.getSprites();
+    }
+
+    /**
+     * Target state version and slider values a battle was played for.
+     */
+    private static final class Key {
+        private final int version;
+        private final short red, green, blue;
+
+        private Key(int version, short red, short green, short blue) {
+            this.version=version;
+            this.red=red;
+            this.green=green;
+            this.blue=blue;
+        }
+
+        private boolean is(int version, short red, short green, short blue) {
+            return this.version==version && this.red==red && this.green==green && this.blue==blue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return is(k.version,k.red,k.green,k.blue);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((version*31+red)*31+green)*31+blue;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.svamp.planetwars.util;
+
+/**
+ * Hands state over from one writer thread to one render thread, without locks on the render path.
+ * The state is kept in two copies, 0 and 1. The renderer reads the front copy while the writer changes the back
+ * copy, then swaps them. The renderer marks the copy it reads for the length of a frame, and a swap returns only
+ * once the old front copy is no longer marked, so the writer never changes a copy that is being drawn.
+ * The renderer never waits. The writer waits at most until the end of the frame being drawn.
+ */
+public final class DoubleBuffer {
+    private volatile int front = 0;
+    //Copy read by the frame being drawn, or -1 between frames.
+    private volatile int rendering = -1;
+
+    /**
+     * @return Copy to read: the one of the frame being drawn, or the front copy between frames.
+     */
+    public int current() {
+        int copy = rendering;
+        return copy>=0 ? copy : front;
+    }
+
+    /**
+     * @return Copy the writer may change.
+     */
+    public int back() { return 1-front; }
+
+    /**
+     * Render thread: mark the front copy as read until endFrame().
+     * @return Copy to read in this frame.
+     */
+    public int beginFrame() {
+        int copy;
+        //A swap between reading front and marking it would go unnoticed by the writer. Check again after marking.
+        do {
+            copy = front;
+            rendering = copy;
+        } while(front!=copy);
+        return copy;
+    }
+
+    /**
+     * Render thread: the frame is drawn.
+     */
+    public void endFrame() {
+        rendering = -1;
+    }
+
+    /**
+     * Writer thread: make the back copy the front copy.
+     * Returns once the frame drawing the old front copy, if any, has ended. The old front copy is then the back copy.
+     */
+    public void swap() {
+        int old = front;
+        front = 1-old;
+        while(rendering==old)
+            Thread.yield();
+    }
+}
@@ -0,0 +1,66 @@
+package com.svamp.planetwars.util;
+
+/**
+ * Logging facade for code shared between the android app and the dedicated server.
+ * Mirrors the parts of android.util.Log we use, so call sites look the same.
+ * Messages go to the installed sink. The default sink prints to the console.
+ */
+public final class Log {
+    private static Sink sink = new ConsoleSink();
+
+    private Log() {}
+
+    /**
+     * Replace the sink all log messages are sent to.
+     * @param newSink Sink to use from now on.
+     */
+    public static void setSink(Sink newSink) {
+        sink = newSink;
+    }
+
+    /**
+     * @return Sink printing errors to the console, and dropping debug messages. For tools running thousands of
+     * matches, where debug output would drown everything else.
+     */
+    public static Sink errorsOnly() {
+        return new ErrorsOnlySink();
+    }
+
+    public static void d(String tag, String msg) {
+        sink.d(tag, msg);
+    }
+
+    public static void e(String tag, String msg) {
+        sink.e(tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        sink.e(tag, msg, tr);
+    }
+
+    /**
+     * Receiver of log messages.
+     */
+    public interface Sink {
+        void d(String tag, String msg);
+        void e(String tag, String msg, Throwable tr);
+    }
+
+    private static class ConsoleSink implements Sink {
+        @Override
+        public void d(String tag, String msg) {
+            System.out.println("D/"+tag+": "+msg);
+        }
+
+        @Override
+        public void e(String tag, String msg, Throwable tr) {
+            System.err.println("E/"+tag+": "+msg);
+            if(tr!=null) tr.printStackTrace();
+        }
+    }
+
+    private static class ErrorsOnlySink extends ConsoleSink {
+        @Override
+        public void d(String tag, String msg) {}
+    }
+}
@@ -0,0 +1,40 @@
+package com.svamp.planetwars.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of ints: 7 bits per byte, low bits first, the high bit of a byte set if more follow.
+ * Small non-negative values take few bytes: below 128 one, below 16384 two. Negative values take five.
+ */
+public final class VarInt {
+    private VarInt() {}
+
+    public static void put(ByteBuffer buffer, int value) {
+        while((value & ~0x7f)!=0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int get(ByteBuffer buffer) {
+        int value = 0;
+        for(int shift=0;;shift+=7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f)<<shift;
+            if(b>=0) return value;
+        }
+    }
+
+    /**
+     * @return Number of bytes put() writes for the value.
+     */
+    public static int size(int value) {
+        int size = 1;
+        while((value & ~0x7f)!=0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,183 @@
+package com.svamp.planetwars.sim;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Checks the timing wheel against a plain priority queue of (tick, star) entries.
+ */
+public class BattleScheduleTest extends TestCase {
+    private final static int NUM_STARS = 200;
+
+    public void testRandomNear() {
+        compareRandom(1,64,20000);
+    }
+
+    //Past the 64 ticks of level 0, so entries are moved down from level 1.
+    public void testRandomBeyondFirstLevel() {
+        compareRandom(2,4096,20000);
+    }
+
+    //Past the 4096 ticks of level 1, so moves cascade through several levels.
+    public void testRandomBeyondSecondLevel() {
+        compareRandom(3,300000,20000);
+    }
+
+    //Entries right at and next to the level boundaries, added at every offset of the wheel.
+    public void testLevelBoundaries() {
+        int[] deltas = {1,63,64,65,4095,4096,4097,262143,262144,262145};
+        BattleSchedule schedule = new BattleSchedule();
+        Reference reference = new Reference();
+        int now = 0;
+        for(int start=0;start<300;start++) {
+            for(int k=0;k<deltas.length;k++) {
+                schedule.add(now+deltas[k],k);
+                reference.add(now+deltas[k],k,now);
+            }
+            now+=7;
+            advanceAndCompare(schedule,reference,now);
+        }
+        now+=300000;
+        advanceAndCompare(schedule,reference,now);
+        assertTrue(schedule.isEmpty());
+    }
+
+    //Further ahead than the four levels reach. The entry goes round the top level until it is near.
+    public void testBeyondTopLevel() {
+        BattleSchedule schedule = new BattleSchedule();
+        int far = (1<<24)+12345;
+        schedule.add(far,5);
+        schedule.advance(far-1);
+        assertEquals(-1,schedule.poll());
+        assertEquals(1,schedule.size());
+        schedule.advance(far);
+        assertEquals(5,schedule.poll());
+        assertEquals(-1,schedule.poll());
+        assertTrue(schedule.isEmpty());
+    }
+
+    //Ticks already passed are due at the next advance.
+    public void testPastTicks() {
+        BattleSchedule schedule = new BattleSchedule();
+        schedule.advance(100);
+        schedule.add(50,1);
+        schedule.add(100,2);
+        schedule.advance(101);
+        assertEquals(Arrays.asList(1,2),pollSorted(schedule));
+    }
+
+    //Many more entries due at once than the due array first holds.
+    public void testManyDueAtOnce() {
+        BattleSchedule schedule = new BattleSchedule();
+        Reference reference = new Reference();
+        for(int i=0;i<5000;i++) {
+            //Spread over levels, then all due by the same advance.
+            int tick = 1+(i*7919)%5000;
+            schedule.add(tick,i);
+            reference.add(tick,i,0);
+        }
+        advanceAndCompare(schedule,reference,5000);
+        assertTrue(schedule.isEmpty());
+        //All in one slot, more than twice what the due array first holds.
+        schedule = new BattleSchedule();
+        for(int i=0;i<1000;i++) {
+            schedule.add(100,i);
+            reference.add(100,i,0);
+        }
+        advanceAndCompare(schedule,reference,100);
+        assertTrue(schedule.isEmpty());
+    }
+
+    //A star added several times comes out once per entry. Keeping only the earliest, the way
+    //SimStarMap does, wakes each star exactly when the earliest wake-up still standing says.
+    public void testStaleEntriesSkipped() {
+        Random random = new Random(4);
+        BattleSchedule schedule = new BattleSchedule();
+        int[] wakeTicks = new int[NUM_STARS];
+        //Expected wake-ups: tick in the high bits, star in the low bits.
+        PriorityQueue<Long> expected = new PriorityQueue<Long>();
+        int now = 0;
+        for(int step=0;step<20000;step++) {
+            for(int k=random.nextInt(4);k>0;k--) {
+                int star = random.nextInt(NUM_STARS);
+                int tick = now+1+random.nextInt(random.nextBoolean() ? 64 : 5000);
+                if(wakeTicks[star]!=0 && wakeTicks[star]<=tick) continue;
+                if(wakeTicks[star]!=0) expected.remove(((long) wakeTicks[star]<<32) | star);
+                wakeTicks[star]=tick;
+                expected.add(((long) tick<<32) | star);
+                schedule.add(tick,star);
+            }
+            now++;
+            schedule.advance(now);
+            List<Integer> woken = new ArrayList<Integer>();
+            for(int i=schedule.poll();i>=0;i=schedule.poll()) {
+                if(wakeTicks[i]!=now) continue;
+                wakeTicks[i]=0;
+                woken.add(i);
+            }
+            Collections.sort(woken);
+            List<Integer> wanted = new ArrayList<Integer>();
+            while(!expected.isEmpty() && (int) (expected.peek()>>>32)<=now)
+                wanted.add((int) (long) expected.poll());
+            Collections.sort(wanted);
+            assertEquals("Tick "+now,wanted,woken);
+        }
+    }
+
+    //Random adds of up to maxDelta ticks ahead, some in the past, with advances of one tick or jumps.
+    private void compareRandom(long seed, int maxDelta, int steps) {
+        Random random = new Random(seed);
+        BattleSchedule schedule = new BattleSchedule();
+        Reference reference = new Reference();
+        int now = 0;
+        for(int step=0;step<steps;step++) {
+            for(int k=random.nextInt(6);k>0;k--) {
+                int star = random.nextInt(NUM_STARS);
+                int tick = random.nextInt(10)==0 ? now-random.nextInt(5) : now+1+random.nextInt(maxDelta);
+                schedule.add(tick,star);
+                reference.add(tick,star,now);
+            }
+            now += random.nextInt(20)==0 ? 1+random.nextInt(maxDelta) : 1;
+            advanceAndCompare(schedule,reference,now);
+        }
+    }
+
+    private static void advanceAndCompare(BattleSchedule schedule, Reference reference, int tick) {
+        schedule.advance(tick);
+        assertEquals("Tick "+tick,reference.pollUpTo(tick),pollSorted(schedule));
+        assertEquals(reference.size(),schedule.size());
+    }
+
+    private static List<Integer> pollSorted(BattleSchedule schedule) {
+        List<Integer> stars = new ArrayList<Integer>();
+        for(int i=schedule.poll();i>=0;i=schedule.poll())
+            stars.add(i);
+        Collections.sort(stars);
+        return stars;
+    }
+
+    //What the wheel should do: every entry is due at its tick, or at the next advance if that has passed.
+    private static class Reference {
+        private final PriorityQueue<Long> queue = new PriorityQueue<Long>();
+
+        void add(int tick, int star, int now) {
+            queue.add(((long) Math.max(tick,now+1)<<32) | star);
+        }
+
+        List<Integer> pollUpTo(int tick) {
+            List<Integer> stars = new ArrayList<Integer>();
+            while(!queue.isEmpty() && (int) (queue.peek()>>>32)<=tick)
+                stars.add((int) (long) queue.poll());
+            Collections.sort(stars);
+            return stars;
+        }
+
+        int size() { return queue.size(); }
+    }
+}
@@ -0,0 +1,76 @@
+package com.svamp.planetwars.sim;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks when the RateScheduler runs its tasks, with ticks that have time for everything and with ticks that have none.
+ */
+public class RateSchedulerTest extends TestCase {
+    private final static float DT = 0.1f;
+
+    public void testTasksRunEveryPeriodWhenThereIsTime() {
+        RateScheduler scheduler = new RateScheduler(10000000000L);
+        Recording required = new Recording(), deferrable = new Recording();
+        scheduler.add("required",3,1,false,required);
+        scheduler.add("deferrable",4,1,true,deferrable);
+        for(int tick=1;tick<=40;tick++)
+            scheduler.tick(tick,DT);
+        assertEquals(ticks(1,4,7,10,13,16,19,22,25,28,31,34,37,40),required.ticks);
+        assertEquals(ticks(1,5,9,13,17,21,25,29,33,37),deferrable.ticks);
+    }
+
+    //No tick has time left. Required tasks still run every period.
+    public void testRequiredTaskNeverDeferred() {
+        RateScheduler scheduler = new RateScheduler(0);
+        Recording required = new Recording();
+        scheduler.add("required",2,1000,false,required);
+        for(int tick=1;tick<=10;tick++)
+            scheduler.tick(tick,DT);
+        assertEquals(ticks(1,3,5,7,9),required.ticks);
+    }
+
+    //No tick has time left. A deferrable task is put off, but once a whole period late it runs anyway.
+    public void testDeferrableTaskNeverPutOffForAWholePeriod() {
+        for(int period=1;period<=5;period++) {
+            RateScheduler scheduler = new RateScheduler(0);
+            Recording deferrable = new Recording();
+            scheduler.add("deferrable",period,1000,true,deferrable);
+            for(int tick=1;tick<=100;tick++)
+                scheduler.tick(tick,DT);
+            assertFalse(deferrable.ticks.isEmpty());
+            //Due at the first tick, so at most a period late then too.
+            assertTrue("Period "+period,deferrable.ticks.get(0)<=1+period);
+            for(int k=1;k<deferrable.ticks.size();k++) {
+                long gap = deferrable.ticks.get(k)-deferrable.ticks.get(k-1);
+                assertTrue("Period "+period+", runs at "+deferrable.ticks,gap>period && gap<=2*period);
+            }
+            //The time passed is all handed to the late runs, so none is lost.
+            for(int k=1;k<deferrable.ticks.size();k++) {
+                long gap = deferrable.ticks.get(k)-deferrable.ticks.get(k-1);
+                assertEquals(DT*gap,deferrable.dts.get(k),1e-5f);
+            }
+        }
+    }
+
+    private static List<Long> ticks(long... ticks) {
+        List<Long> list = new ArrayList<Long>();
+        for(long tick : ticks)
+            list.add(tick);
+        return list;
+    }
+
+    //Work that only notes when it ran, and the time it was given.
+    private static class Recording implements TickScheduler.Tickable {
+        final List<Long> ticks = new ArrayList<Long>();
+        final List<Float> dts = new ArrayList<Float>();
+
+        @Override
+        public void tick(long tickNum, float dt) {
+            ticks.add(tickNum);
+            dts.add(dt);
+        }
+    }
+}